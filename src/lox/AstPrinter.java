@@ -34,6 +34,11 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return expr.name.lexeme + " = " + print(expr.value);
     }
 
+    @Override
+    public String visitAwaitExpr(Expr.Await expr) {
+        return "await " + print(expr.value);
+    }
+
     @Override
     public String visitBinaryExpr(Expr.Binary expr) {
         return print(expr.left) + " " + expr.operator.lexeme + " " + print(expr.right);
@@ -54,6 +59,31 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return print(expr.obj) + "." + expr.name.lexeme;
     }
 
+    @Override
+    public String visitIndexExpr(Expr.Index expr) {
+        return print(expr.obj) + "[" + print(expr.index) + "]";
+    }
+
+    @Override
+    public String visitIndexSetExpr(Expr.IndexSet expr) {
+        return print(expr.obj) + "[" + print(expr.index) + "] = " + print(expr.value);
+    }
+
+    @Override
+    public String visitListLiteralExpr(Expr.ListLiteral expr) {
+        return "[" + expr.elements.stream().map(this::print).collect(Collectors.joining(", ")) + "]";
+    }
+
+    @Override
+    public String visitMapLiteralExpr(Expr.MapLiteral expr) {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < expr.keys.size(); i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(print(expr.keys.get(i))).append(": ").append(print(expr.values.get(i)));
+        }
+        return builder.append("}").toString();
+    }
+
     @Override
     public String visitGroupingExpr(Expr.Grouping expr) {
         return "(" + print(expr.expression) + ")";
@@ -159,6 +189,21 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return "while (" + print(stmt.condition) + ") " + print(stmt.body);
     }
 
+    @Override
+    public String visitForInStmt(Stmt.ForIn stmt) {
+        return "for (" + stmt.name.lexeme + " in " + print(stmt.iterable) + ") " + print(stmt.body);
+    }
+
+    @Override
+    public String visitYieldStmt(Stmt.Yield stmt) {
+        return "yield " + print(stmt.value) + ";";
+    }
+
+    @Override
+    public String visitParallelStmt(Stmt.Parallel stmt) {
+        return "parallel " + print(stmt.body);
+    }
+
     @Override
     public String visitBreakStmt(@NotNull Stmt.Break stmt) {
         return "break;";
@@ -0,0 +1,11 @@
+package lox;
+
+// Holds a captured variable that may still change after it was captured, so
+// the frame declaring it and every closure referencing it share the value.
+class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,55 @@
+package lox;
+
+import lox.tool_gen.Stmt;
+
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// A script that has been parsed and resolved once. Every execution runs in a
+// new interpreter with a fresh copy of the globals the script was resolved
+// against, so executions don't see each other.
+public final class CompiledScript {
+    private final String name;
+    private final List<Stmt> statements;
+    private final Globals globals;
+    private final ModuleRegistry modules;
+
+    CompiledScript(String name, List<Stmt> statements, Globals globals, ModuleRegistry modules) {
+        this.name = name;
+        this.statements = statements;
+        this.globals = globals;
+        this.modules = modules;
+    }
+
+    public Object execute() throws LoxException {
+        return execute(Map.of(), LoxOutput.stdout());
+    }
+
+    // Bindings are defined as globals before the script runs, converted like
+    // the values given to LoxEngine.define().
+    public Object execute(Map<String, ?> bindings, Writer out) throws LoxException {
+        return execute(bindings, LoxOutput.of(out));
+    }
+
+    // Prints to the channel, such as an open file, as UTF-8.
+    public Object execute(Map<String, ?> bindings, WritableByteChannel out) throws LoxException {
+        return execute(bindings, LoxOutput.of(out));
+    }
+
+    private Object execute(Map<String, ?> bindings, LoxOutput out) throws LoxException {
+        List<String> errors = new ArrayList<>();
+        ModuleInfo moduleInfo = new ModuleInfo(name, errors::add);
+        Interpreter interpreter = new Interpreter(moduleInfo, globals.copy(), out, modules);
+
+        for (Map.Entry<String, ?> binding : bindings.entrySet()) {
+            interpreter.globals.define(binding.getKey(), JavaInterop.toLox(binding.getValue()));
+        }
+
+        Object result = LoxEngine.run(interpreter, statements);
+        if (!errors.isEmpty()) throw new LoxException(errors);
+        return result;
+    }
+}
@@ -1,65 +1,18 @@
 package lox;
 
-import lox.token.Token;
-
-import java.util.HashMap;
-import java.util.Map;
-
+// The frame of a single function call (or outermost block) with its
+// variables in slots assigned by the Resolver, and the upvalues of the
+// closure being run. Globals are kept separately, see Globals.
 class Environment {
-    final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-
-    Environment() {
-        enclosing = null;
-    }
-
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
-    }
-
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if (enclosing != null) return enclosing.get(name);
-
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
-    }
-
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
-    }
-
-    void define(String name, Object value) {
-        values.put(name, value);
-    }
-
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            assert environment != null;
-            environment = environment.enclosing;
-        }
-
-        return environment;
-    }
+    final Object[] slots;
+    final Object[] upvalues;
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Environment(int size, Object[] upvalues) {
+        slots = new Object[size];
+        this.upvalues = upvalues;
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void define(int slot, Object value) {
+        slots[slot] = value;
     }
 }
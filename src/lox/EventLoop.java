@@ -0,0 +1,200 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs callbacks, timers and async functions on the thread driving it, which
+// is the interpreter's thread once the top-level statements are done, or
+// while top-level code awaits a promise. I/O completing on other threads
+// hands its results back through the ready queue.
+//
+// An async call runs in a Resumable, which stops at an await of a promise
+// that isn't settled yet and is resumed by a callback once it is, so calls
+// waiting for a promise take no thread, and Lox code never sees another one.
+class EventLoop {
+    // Runs the callbacks.
+    final Interpreter interpreter;
+    private final BlockingQueue<Runnable> ready = new LinkedBlockingQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    // Operations on other threads that will still add a callback.
+    private final AtomicInteger pending = new AtomicInteger();
+    private final List<LoxPromise> rejected = new ArrayList<>();
+    private long timerCount = 0;
+
+    EventLoop(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long deadline;
+        final long sequence;
+        final Runnable callback;
+
+        Timer(long deadline, long sequence, Runnable callback) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.callback = callback;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            int order = Long.compare(deadline, other.deadline);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    void submit(Runnable callback) {
+        ready.add(callback);
+    }
+
+    void setTimeout(double milliseconds, Runnable callback) {
+        long delay = TimeUnit.MICROSECONDS.toNanos((long)(Math.max(milliseconds, 0) * 1000));
+        timers.add(new Timer(System.nanoTime() + delay, timerCount++, callback));
+    }
+
+    // Starts an async call on the next turn of the loop.
+    LoxPromise async(LoxFunction function, List<Object> arguments) {
+        LoxPromise promise = new LoxPromise(this);
+        Interpreter interpreter = this.interpreter.fork(this);
+        submit(() -> resume(new Resumable(function, arguments), interpreter, promise));
+        return promise;
+    }
+
+    // Runs the call until it awaits a promise, to go on once that's settled,
+    // or until it ends and settles its own.
+    private void resume(Resumable call, Interpreter interpreter, LoxPromise promise) {
+        try {
+            if (call.resume(interpreter)) {
+                call.promise().onSettle(() -> resume(call, interpreter, promise));
+            } else {
+                promise.resolve(call.value);
+            }
+        } catch (RuntimeException error) {
+            promise.reject(error);
+        }
+    }
+
+    void readFile(String path, LoxPromise promise) {
+        AsynchronousFileChannel channel;
+        ByteBuffer buffer;
+        try {
+            channel = AsynchronousFileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            buffer = ByteBuffer.allocate((int)channel.size());
+        } catch (IOException | RuntimeException e) {
+            promise.reject(new NativeError("Error reading file: " + path));
+            return;
+        }
+
+        pending.incrementAndGet();
+        channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                if (count >= 0 && buffer.hasRemaining()) {
+                    channel.read(buffer, buffer.position(), null, this);
+                    return;
+                }
+
+                close();
+                String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+                complete(() -> promise.resolve(text));
+            }
+
+            @Override
+            public void failed(Throwable exception, Void attachment) {
+                close();
+                complete(() -> promise.reject(new NativeError("Error reading file: " + path)));
+            }
+
+            private void close() {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Nothing was written.
+                }
+            }
+        });
+    }
+
+    private void complete(Runnable callback) {
+        ready.add(callback);
+        pending.decrementAndGet();
+    }
+
+    // Called when a promise is rejected before anything waits for it.
+    void rejected(LoxPromise promise) {
+        rejected.add(promise);
+    }
+
+    // Runs until nothing is left that could add a callback, then reports the
+    // rejections nothing ever waited for.
+    void run() {
+        while (turn()) {
+            // Keep going.
+        }
+
+        // Printed output goes before the errors.
+        if (!rejected.isEmpty()) interpreter.out.flush();
+        ModuleInfo moduleInfo = interpreter.moduleInfo;
+        for (LoxPromise promise : rejected) {
+            RuntimeException error = promise.unhandledError();
+            if (error instanceof RuntimeError runtimeError) {
+                moduleInfo.runtimeError(runtimeError);
+            } else if (error != null) {
+                moduleInfo.reporter.report("Unhandled rejection: " + error.getMessage());
+                moduleInfo.hadRuntimeError = true;
+            }
+        }
+        rejected.clear();
+    }
+
+    // Runs the loop from top-level code until the promise is settled.
+    Object await(LoxPromise promise) {
+        while (!promise.isSettled()) {
+            if (!turn()) throw new NativeError("Awaited promise can never be settled.");
+        }
+        return promise.result();
+    }
+
+    // Runs a due timer or a ready callback, waiting for one if there is
+    // none yet. Returns false once there is nothing left to wait for.
+    private boolean turn() {
+        Timer timer = timers.peek();
+        long now = System.nanoTime();
+        if (timer != null && timer.deadline <= now) {
+            timers.poll();
+            timer.callback.run();
+            return true;
+        }
+
+        Runnable callback = ready.poll();
+        if (callback == null) {
+            if (timer == null && pending.get() == 0) {
+                // A callback could have arrived just before the last operation
+                // ended.
+                callback = ready.poll();
+                if (callback == null) return false;
+            } else {
+                try {
+                    callback = timer == null ? ready.take() : ready.poll(timer.deadline - now, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                if (callback == null) return true;
+            }
+        }
+
+        callback.run();
+        return true;
+    }
+}
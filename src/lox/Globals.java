@@ -0,0 +1,139 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Global variables are stored in an array. The Resolver gives every global
+// name a slot the first time it sees it, so resolved references index the
+// array directly, even when the variable is only defined later. Lookups by
+// name (natives, other modules reading or writing our members) go through
+// the slot table first.
+class Globals {
+    // What an undefined slot holds, with the reason reading it is an error.
+    private static final class Undefined {
+        final String message;
+
+        Undefined(String message) {
+            this.message = message;
+        }
+    }
+
+    private static final Undefined UNDEFINED = new Undefined(null);
+
+    private Map<String, Integer> slots;
+    private Object[] values;
+    // Slots in use, those of names and hidden ones.
+    private int size;
+    // The slot table is shared with the globals this one was copied from
+    // until a new name has to be added.
+    private boolean shared;
+
+    Globals() {
+        slots = new HashMap<>();
+        values = new Object[0];
+        size = 0;
+        shared = false;
+    }
+
+    private Globals(Globals template) {
+        slots = template.slots;
+        values = template.values.clone();
+        size = template.size;
+        shared = true;
+    }
+
+    // Globals laid out like these ones with the values they hold now, so code
+    // resolved against them can run again without seeing earlier runs.
+    Globals copy() {
+        return new Globals(this);
+    }
+
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) return slot;
+
+        if (shared) {
+            slots = new HashMap<>(slots);
+            shared = false;
+        }
+        slot = newSlot();
+        slots.put(name, slot);
+        return slot;
+    }
+
+    // A slot without a name, for a variable the compiler made up, so no
+    // lookup by name can find it.
+    int hiddenSlot() {
+        return newSlot();
+    }
+
+    private int newSlot() {
+        int slot = size++;
+        if (slot == values.length) {
+            values = Arrays.copyOf(values, Math.max(16, slot * 2));
+            Arrays.fill(values, slot, values.length, UNDEFINED);
+        }
+        return slot;
+    }
+
+    Object get(int slot, Token name) {
+        Object value = values[slot];
+        if (value instanceof Undefined undefined) {
+            if (undefined.message != null) throw new RuntimeError(name, undefined.message);
+            throw undefined(name);
+        }
+        return value;
+    }
+
+    void assign(int slot, Token name, Object value) {
+        if (values[slot] instanceof Undefined) throw undefined(name);
+        values[slot] = value;
+    }
+
+    void define(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    // Makes reading the global an error until it's defined again.
+    void undefine(int slot) {
+        values[slot] = UNDEFINED;
+    }
+
+    // Like undefine(), with the message reading the global fails with.
+    void undefine(int slot, String message) {
+        values[slot] = new Undefined(message);
+    }
+
+    // Slot of a name that is already known, for lookups by name at runtime.
+    int slotOf(Token name) {
+        Integer slot = slots.get(name.lexeme);
+        if (slot == null) throw undefined(name);
+        return slot;
+    }
+
+    // Identifies how names map to slots. Globals copied from the same ones
+    // share it until a name is added, and adding one never moves the others,
+    // so a slot found under it stays valid while it's the same.
+    Object layout() {
+        return slots;
+    }
+
+    void define(String name, Object value) {
+        int slot = slot(name);
+        values[slot] = value;
+    }
+
+    // The value of the global, or null if it isn't defined.
+    Object lookup(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null || values[slot] instanceof Undefined) return null;
+        return values[slot];
+    }
+
+    private static RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+}
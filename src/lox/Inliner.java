@@ -0,0 +1,277 @@
+package lox;
+
+import lox.token.Token;
+import lox.token.TokenType;
+import lox.tool_gen.Expr;
+import lox.tool_gen.Stmt;
+
+import java.util.*;
+
+// Substitutes the bodies of small top-level functions at their call sites.
+// A function qualifies when its body is a single 'return <expr>;' without
+// closures, 'this' or 'super', and its binding is a 'const' lambda or a 'fun'
+// that is declared once and never reassigned. Each parameter is renamed to a
+// fresh local of the calling scope, or at the top level to a global in a
+// hidden slot, so the copied body can be evaluated in place. The interpreter guards the inlined path by checking that the callee
+// is still a function created from the same declaration.
+class Inliner implements Expr.Visitor<Expr> {
+    private static final int MAX_BODY_SIZE = 24;
+
+    private final Resolver resolver;
+    private final Map<String, Stmt.Function> candidates = new HashMap<>();
+    private final Set<String> declared = new HashSet<>();
+    private final Set<Stmt.Function> expanding = new HashSet<>();
+    private Map<String, Token> renames = new HashMap<>();
+    private int nextId = 0;
+
+    Inliner(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    void collect(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function function) {
+                assert function.name != null;
+                addCandidate(function.name, function);
+            } else if (statement instanceof Stmt.Var var) {
+                Stmt.Function function = null;
+                if (var.varType == TokenType.CONST && var.initializer instanceof Expr.Lambda lambda) {
+                    function = lambda.function;
+                }
+                addCandidate(var.name, function);
+            } else if (statement instanceof Stmt.Class klass) {
+                addCandidate(klass.name, null);
+            } else if (statement instanceof Stmt.Import module) {
+                addCandidate(Objects.requireNonNullElse(module.alias, module.name), null);
+            }
+        }
+    }
+
+    void reassigned(Token name) {
+        candidates.remove(name.lexeme);
+    }
+
+    void inline(Expr.Call call) {
+        if (!(call.callee instanceof Expr.Variable callee)) return;
+        if (resolver.isLocal(callee.name)) return;
+
+        Stmt.Function function = candidates.get(callee.name.lexeme);
+        if (function == null || expanding.contains(function)) return;
+        if (function.params.size() != call.arguments.size()) return;
+
+        Map<String, Token> enclosingRenames = renames;
+        renames = new HashMap<>();
+
+        List<Stmt.Var> params = new ArrayList<>();
+        for (Token param : function.params) {
+            Token renamed = new Token(TokenType.IDENTIFIER, param.lexeme + "@" + nextId++, null, param.line);
+            Stmt.Var declaration = new Stmt.Var(renamed, null, TokenType.VAR);
+            resolver.declareSynthetic(declaration);
+            renames.put(param.lexeme, renamed);
+            params.add(declaration);
+        }
+
+        expanding.add(function);
+        Expr value = ((Stmt.Return)function.body.get(0)).value;
+        assert value != null;
+        Expr body = copy(value);
+        expanding.remove(function);
+        renames = enclosingRenames;
+
+        call.inlineTarget = function;
+        call.inlineParams = params;
+        call.inlineBody = body;
+    }
+
+    private void addCandidate(Token name, Stmt.Function function) {
+        if (!declared.add(name.lexeme)) {
+            candidates.remove(name.lexeme);
+            return;
+        }
+
+        if (function != null && isSmall(function)) {
+            candidates.put(name.lexeme, function);
+        }
+    }
+
+    private boolean isSmall(Stmt.Function function) {
+        if (function.isAsync || function.body.size() != 1) return false;
+        if (!(function.body.get(0) instanceof Stmt.Return stmt) || stmt.value == null) return false;
+
+        int size = size(stmt.value);
+        return size >= 0 && size <= MAX_BODY_SIZE;
+    }
+
+    // Number of nodes in the expression, or -1 if it can't be inlined.
+    private int size(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.Variable) return 1;
+        if (expr instanceof Expr.Assign assign) return add(1, size(assign.value));
+        if (expr instanceof Expr.Binary binary) return add(size(binary.left), size(binary.right));
+        if (expr instanceof Expr.Logical logical) return add(size(logical.left), size(logical.right));
+        if (expr instanceof Expr.Grouping grouping) return size(grouping.expression);
+        if (expr instanceof Expr.Unary unary) return add(1, size(unary.right));
+        if (expr instanceof Expr.Get get) return add(1, size(get.obj));
+        if (expr instanceof Expr.Set set) return add(size(set.obj), size(set.value));
+        if (expr instanceof Expr.Index index) return add(size(index.obj), size(index.index));
+        if (expr instanceof Expr.IndexSet indexSet) {
+            return add(add(size(indexSet.obj), size(indexSet.index)), size(indexSet.value));
+        }
+        if (expr instanceof Expr.ListLiteral list) {
+            int size = 1;
+            for (Expr element : list.elements) {
+                size = add(size, size(element));
+            }
+            return size;
+        }
+        if (expr instanceof Expr.MapLiteral map) {
+            int size = 1;
+            for (int i = 0; i < map.keys.size(); i++) {
+                size = add(size, add(size(map.keys.get(i)), size(map.values.get(i))));
+            }
+            return size;
+        }
+        if (expr instanceof Expr.Call call) {
+            int size = size(call.callee);
+            for (Expr argument : call.arguments) {
+                size = add(size, size(argument));
+            }
+            return size;
+        }
+
+        // Lambda, This and Super depend on the environment of the declaration,
+        // Await on the function being async.
+        return -1;
+    }
+
+    private int add(int left, int right) {
+        if (left < 0 || right < 0) return -1;
+        return left + right + 1;
+    }
+
+    private Expr copy(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private List<Expr> copy(List<Expr> exprs) {
+        List<Expr> copies = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            copies.add(copy(expr));
+        }
+        return copies;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = copy(expr.value);
+        Token renamed = renames.get(expr.name.lexeme);
+        if (renamed == null) {
+            Expr.Assign assign = new Expr.Assign(expr.name, value);
+            assign.global = resolver.globalSlot(expr.name);
+            return assign;
+        }
+
+        Expr.Assign assign = new Expr.Assign(renamed, value);
+        resolver.resolveSynthetic(assign, renamed);
+        return assign;
+    }
+
+    @Override
+    public Expr visitAwaitExpr(Expr.Await expr) {
+        // Unreachable.
+        return expr;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        return new Expr.Binary(copy(expr.left), expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr.Call call = new Expr.Call(copy(expr.callee), expr.paren, copy(expr.arguments));
+        inline(call);
+        return call;
+    }
+
+    @Override
+    public Expr visitLambdaExpr(Expr.Lambda expr) {
+        // Unreachable.
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(copy(expr.obj), expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return new Expr.Grouping(copy(expr.expression));
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        return new Expr.Index(copy(expr.obj), expr.bracket, copy(expr.index));
+    }
+
+    @Override
+    public Expr visitIndexSetExpr(Expr.IndexSet expr) {
+        return new Expr.IndexSet(copy(expr.obj), expr.bracket, copy(expr.index), copy(expr.value));
+    }
+
+    @Override
+    public Expr visitListLiteralExpr(Expr.ListLiteral expr) {
+        return new Expr.ListLiteral(expr.bracket, copy(expr.elements));
+    }
+
+    @Override
+    public Expr visitMapLiteralExpr(Expr.MapLiteral expr) {
+        return new Expr.MapLiteral(expr.brace, copy(expr.keys), copy(expr.values));
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        return new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(copy(expr.obj), expr.name, copy(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        // Unreachable.
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        // Unreachable.
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        return new Expr.Unary(expr.operator, copy(expr.right));
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        Token renamed = renames.get(expr.name.lexeme);
+        if (renamed == null) {
+            Expr.Variable variable = new Expr.Variable(expr.name);
+            variable.global = resolver.globalSlot(expr.name);
+            return variable;
+        }
+
+        Expr.Variable variable = new Expr.Variable(renamed);
+        resolver.resolveSynthetic(variable, renamed);
+        return variable;
+    }
+}
@@ -9,42 +9,296 @@ import lox.tool_gen.Expr;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    private final ModuleInfo moduleInfo;
-    final Environment globals = new Environment();
-    Interpreter currentInterpreter = this;
-    Environment environment = globals;
-    final Map<Expr, Integer> locals = new HashMap<>();
+    final ModuleInfo moduleInfo;
+    final LoxOutput out;
+    final ModuleRegistry modules;
+    final EventLoop loop;
+    // Receives the values yielded by the generator being run.
+    LoxGenerator.Sink sink = null;
+    // The globals of the module whose code is running. Calling a function
+    // imported from another module switches to that module's globals.
+    Globals globals;
+    // Null while running top-level code, which only has globals.
+    Environment environment = null;
+    // Tasks spawned inside the innermost 'parallel' block, which waits for
+    // them, or outside any while the script runs, which waits for them before
+    // it ends (see awaitTasks()). Tasks inherit it, so it includes the tasks
+    // they spawn.
+    private Queue<LoxTask> tasks = null;
 
     Interpreter(ModuleInfo moduleInfo) {
+        this(moduleInfo, newGlobals(), LoxOutput.stdout(), new ModuleRegistry());
+    }
+
+    Interpreter(ModuleInfo moduleInfo, Globals globals, LoxOutput out, ModuleRegistry modules) {
+        this(moduleInfo, globals, out, modules, null);
+    }
+
+    // Shares the event loop, or starts a new one if it's null.
+    Interpreter(ModuleInfo moduleInfo, Globals globals, LoxOutput out, ModuleRegistry modules, EventLoop loop) {
         this.moduleInfo = moduleInfo;
+        this.globals = globals;
+        this.out = out;
+        this.modules = modules;
+        this.loop = loop != null ? loop : new EventLoop(this);
+    }
+
+    // An interpreter with state of its own, for running code on another
+    // thread or as an async call. It gets a new event loop if loop is null.
+    Interpreter fork(EventLoop loop) {
+        return new Interpreter(moduleInfo, globals, out, modules, loop);
+    }
+
+    // Globals holding the native functions.
+    static Globals newGlobals() {
+        Globals globals = new Globals();
+        globals.define("clock", new LoxNative(0, (interpreter, arguments) ->
+                (double)System.currentTimeMillis() / 1000.0));
+
+        globals.define("flush", new LoxNative(0, (interpreter, arguments) -> {
+            interpreter.out.flush();
+            return null;
+        }));
+
+        globals.define("Stream", LoxStream.SOURCES);
+        globals.define("NumArray", LoxNumArray.FACTORIES);
+        globals.define("Bytes", LoxBytes.FACTORIES);
+        globals.define("File", LoxFile.FACTORIES);
+        globals.define("stdin", LoxFile.STDIN);
+        globals.define("Vector", LoxVector.FACTORIES);
+        globals.define("PersistentMap", LoxPersistentMap.FACTORIES);
+
+        globals.define("parallelMap", new LoxNative(2, (interpreter, arguments) ->
+                LoxParallel.map(interpreter, arguments.get(0), arguments.get(1))));
+
+        globals.define("parallelReduce", new LoxNative(3, (interpreter, arguments) ->
+                LoxParallel.reduce(interpreter, arguments.get(0), arguments.get(1), arguments.get(2))));
+
+        globals.define("parallelForEach", new LoxNative(2, (interpreter, arguments) -> {
+            LoxParallel.forEach(interpreter, arguments.get(0), arguments.get(1));
+            return null;
+        }));
+
+        globals.define("spawn", new LoxNative(1, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof LoxCallable function) || function.arity() != 0) {
+                throw new NativeError("Can only spawn functions without parameters.");
+            }
+            return interpreter.spawn(function);
+        }));
+
+        globals.define("channel", new LoxNative(1, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof Double capacity) || capacity < 1 || capacity % 1 != 0) {
+                throw new NativeError("Channel capacity must be a positive integer.");
+            }
+            return new LoxChannel(capacity.intValue());
+        }));
+
+        globals.define("memoize", new LoxNative(2, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof LoxCallable function)) {
+                throw new NativeError("Can only memoize functions.");
+            }
+            if (!(arguments.get(1) instanceof Double maxEntries) || maxEntries < 1 || maxEntries % 1 != 0) {
+                throw new NativeError("Maximum number of entries must be a positive integer.");
+            }
+            return new LoxMemo(function, (int)Math.min(maxEntries, Integer.MAX_VALUE));
+        }));
 
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() { return 0; }
+        globals.define("freeze", new LoxNative(1, (interpreter, arguments) -> {
+            LoxInstance.freeze(arguments.get(0));
+            return arguments.get(0);
+        }));
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
+        globals.define("setTimeout", new LoxNative(2, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof LoxCallable callback) || callback.arity() != 0) {
+                throw new NativeError("Timer callback must be a function without parameters.");
             }
+            if (!(arguments.get(1) instanceof Double delay)) {
+                throw new NativeError("Timer delay must be a number.");
+            }
+
+            EventLoop loop = interpreter.loop;
+            loop.setTimeout(delay, () -> callback.call(loop.interpreter, List.of()));
+            return null;
+        }));
+
+        globals.define("sleep", new LoxNative(1, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof Double delay)) {
+                throw new NativeError("Sleep time must be a number.");
+            }
+
+            LoxPromise promise = new LoxPromise(interpreter.loop);
+            interpreter.loop.setTimeout(delay, () -> promise.resolve(null));
+            return promise;
+        }));
 
-            @Override
-            public String toString() { return "<native fn>"; }
-        });
+        globals.define("readFileAsync", new LoxNative(1, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof String path)) {
+                throw new NativeError("Path must be a string.");
+            }
+
+            LoxPromise promise = new LoxPromise(interpreter.loop);
+            interpreter.loop.readFile(path, promise);
+            return promise;
+        }));
+        return globals;
     }
 
     void interpret(List<Stmt> statements) {
+        tasks = new ConcurrentLinkedQueue<>();
         try {
             for (Stmt statement : statements) {
                 execute(statement);
-                currentInterpreter = this;
             }
+            loop.run();
+            awaitTasks();
         } catch (RuntimeError error) {
+            out.flush();
             moduleInfo.runtimeError(error);
+        } finally {
+            out.flush();
         }
     }
 
+    // Runs the script once for each line of input, awk style, with the line
+    // in the 'line' global. Functions, classes and imports are declared once,
+    // before any input, followed by BEGIN() and, after the last line, END(),
+    // if the script declares them. The other statements, top-level variables
+    // included, run again for every line, at the top level, so nothing is
+    // allocated for them between lines. The variables BEGIN() declares (see
+    // hoistBeginVariables()) are the state kept from one line to the next.
+    // When print is set, 'line' is printed after each run, after any changes
+    // to it.
+    //
+    // 'line' is undefined until the first line is read, so BEGIN() reading
+    // it is an error instead of seeing nil.
+    void interpretLines(List<Stmt.Var> state, List<Stmt> statements, LoxIterable input, boolean print) {
+        Token name = new Token(TokenType.IDENTIFIER, "line", null, 0);
+        int line = globals.slot(name.lexeme);
+        globals.undefine(line, "BEGIN() runs before any input and can't read 'line'.");
+        List<Stmt> body = new ArrayList<>();
+        tasks = new ConcurrentLinkedQueue<>();
+        try {
+            for (Stmt statement : state) {
+                execute(statement);
+            }
+            for (Stmt statement : statements) {
+                if (statement instanceof Stmt.Function || statement instanceof Stmt.Class ||
+                        statement instanceof Stmt.Import) {
+                    execute(statement);
+                } else {
+                    body.add(statement);
+                }
+            }
+            callHook("BEGIN");
+
+            input.iterate(this, value -> {
+                globals.define(line, value);
+                for (Stmt statement : body) {
+                    execute(statement);
+                }
+                if (print) out.println(globals.get(line, name));
+                return true;
+            });
+            callHook("END");
+            loop.run();
+            awaitTasks();
+        } catch (RuntimeError error) {
+            out.flush();
+            moduleInfo.runtimeError(error);
+        } catch (NativeError error) {
+            // Reading the input failed.
+            out.flush();
+            moduleInfo.reporter.report(error.getMessage());
+            moduleInfo.hadRuntimeError = true;
+        } finally {
+            out.flush();
+        }
+    }
+
+    // Makes the variables declared in the body of a top-level BEGIN() globals,
+    // declared once before the input, so they keep their values between
+    // lines. BEGIN() assigns them where it declared them. Called on the parsed
+    // statements, before they're resolved; returns the declarations to run
+    // first.
+    static List<Stmt.Var> hoistBeginVariables(List<Stmt> statements) {
+        List<Stmt.Var> state = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Function begin) || !begin.name.lexeme.equals("BEGIN") ||
+                    !begin.params.isEmpty()) {
+                continue;
+            }
+            for (int i = 0; i < begin.body.size(); i++) {
+                if (!(begin.body.get(i) instanceof Stmt.Var variable)) continue;
+                state.add(new Stmt.Var(variable.name, null, TokenType.VAR));
+                Expr value = variable.initializer != null ? variable.initializer : new Expr.Literal(null);
+                begin.body.set(i, new Stmt.Expression(new Expr.Assign(variable.name, value)));
+            }
+        }
+        return state;
+    }
+
+    // Waits for the tasks spawned outside 'parallel' blocks once the script
+    // is done, reporting the error of any that failed without being joined
+    // like an uncaught one. Tasks still running when the script fails are
+    // dropped: their threads don't keep the program alive.
+    private void awaitTasks() {
+        LoxTask task;
+        while ((task = tasks.poll()) != null) {
+            Throwable error = task.unjoinedError();
+            if (error instanceof RuntimeError runtimeError) {
+                moduleInfo.runtimeError(runtimeError);
+            } else if (error != null) {
+                moduleInfo.reporter.report(error instanceof NativeError ? error.getMessage() : error.toString());
+                moduleInfo.hadRuntimeError = true;
+            }
+        }
+    }
+
+    private void callHook(String name) {
+        if (globals.lookup(name) instanceof LoxCallable hook && hook.arity() == 0) {
+            hook.call(this, List.of());
+        }
+    }
+
+    // Runs the top level of an imported module. What it starts on the event
+    // loop runs once the importing script's loop does.
+    void load(List<Stmt> statements) {
+        try {
+            for (Stmt statement : statements) {
+                execute(statement);
+            }
+        } catch (RuntimeError error) {
+            out.flush();
+            moduleInfo.runtimeError(error);
+        }
+    }
+
+    // Runs a script for an embedder, leaving runtime errors to the caller.
+    // The result is the value of the last top-level expression statement.
+    Object run(List<Stmt> statements) {
+        Object result = null;
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Expression expression) {
+                result = evaluate(expression.expression);
+            } else {
+                execute(statement);
+            }
+        }
+        return result;
+    }
+
+    private LoxTask spawn(LoxCallable function) {
+        Interpreter interpreter = fork(null);
+        interpreter.tasks = tasks;
+
+        LoxTask task = new LoxTask(interpreter, function);
+        if (tasks != null) tasks.add(task);
+        return task;
+    }
+
     private Object evaluate(Expr expr) {
         return expr.accept(this);
     }
@@ -53,10 +307,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
     void executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         boolean didContinue = false;
@@ -81,21 +331,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         if (didContinue) {
-            throw new Continue();
+            throw Continue.INSTANCE;
         }
     }
 
     @Override
     public Void visitImportStmt(Stmt.Import stmt) {
-        LoxModule module = new LoxModule(stmt.name);
+        LoxModule module = new LoxModule(stmt.name, this);
         module.init();
-        environment.define(Objects.requireNonNullElseGet(stmt.alias, () -> stmt.name).lexeme, module);
+        declare(stmt.slot, stmt.boxed);
+        define(Objects.requireNonNullElse(stmt.alias, stmt.name), stmt.slot, stmt.boxed, module);
         return null;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (stmt.frameSize < 0) {
+            executeBlock(stmt.statements, environment);
+        } else {
+            executeBlock(stmt.statements, new Environment(stmt.frameSize, null));
+        }
         return null;
     }
 
@@ -109,27 +364,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        declare(stmt.slot, stmt.boxed);
+        define(stmt.name, stmt.slot, stmt.boxed, null);
 
+        Environment enclosing = environment;
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            if (stmt.frameSize >= 0) environment = new Environment(stmt.frameSize, null);
+            environment.define(stmt.superSlot, superclass);
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
             assert method.name != null;
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            LoxFunction function = new LoxFunction(method, captureUpvalues(method), globals, method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
+        environment = enclosing;
 
-        if (superclass != null) {
-            environment = environment.enclosing;
-        }
-
-        environment.assign(stmt.name, klass);
+        define(stmt.name, stmt.slot, stmt.boxed, klass);
         return null;
     }
 
@@ -141,9 +395,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(@NotNull Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
         assert stmt.name != null;
-        environment.define(stmt.name.lexeme, function);
+        declare(stmt.slot, stmt.boxed);
+        LoxFunction function = new LoxFunction(stmt, captureUpvalues(stmt), globals, false);
+        define(stmt.name, stmt.slot, stmt.boxed, function);
         return null;
     }
 
@@ -160,7 +415,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(value);
         return null;
     }
 
@@ -174,15 +429,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
+        declareVariable(stmt);
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        defineVariable(stmt, value);
         return null;
     }
 
+    void declareVariable(Stmt.Var stmt) {
+        declare(stmt.slot, stmt.boxed);
+    }
+
+    void defineVariable(Stmt.Var stmt, Object value) {
+        define(stmt.name, stmt.slot, stmt.boxed, value);
+    }
+
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         try {
@@ -199,29 +463,115 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        LoxIterable values = iterable(stmt);
+
+        Environment enclosing = environment;
+        if (stmt.frameSize >= 0) environment = new Environment(stmt.frameSize, null);
+        try {
+            values.iterate(this, value -> {
+                defineLoopVariable(stmt, value);
+                try {
+                    execute(stmt.body);
+                } catch (Continue ignored) {
+                } catch (Break b) {
+                    return false;
+                }
+                return true;
+            });
+        } catch (NativeError error) {
+            throw new RuntimeError(stmt.name, error.getMessage());
+        } finally {
+            environment = enclosing;
+        }
+        return null;
+    }
+
+    LoxIterable iterable(Stmt.ForIn stmt) {
+        Object iterable = evaluate(stmt.iterable);
+        if (!(iterable instanceof LoxIterable values)) {
+            throw new RuntimeError(stmt.name, "Can only iterate over lists, maps, generators and streams.");
+        }
+        return values;
+    }
+
+    // Every pass gets a new variable, so closures keep the value they saw.
+    void defineLoopVariable(Stmt.ForIn stmt, Object value) {
+        declare(stmt.slot, stmt.boxed);
+        define(stmt.name, stmt.slot, stmt.boxed, value);
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        sink.send(evaluate(stmt.value));
+        return null;
+    }
+
+    @Override
+    public Void visitParallelStmt(Stmt.Parallel stmt) {
+        Queue<LoxTask> enclosing = tasks;
+        Queue<LoxTask> children = new ConcurrentLinkedQueue<>();
+        tasks = children;
+        try {
+            execute(stmt.body);
+        } finally {
+            tasks = enclosing;
+
+            // Every task has to finish before the first error is rethrown.
+            LoxTask failed = null;
+            LoxTask task;
+            while ((task = children.poll()) != null) {
+                if (!task.await() && failed == null) failed = task;
+            }
+            if (failed != null) failed.join();
+        }
+        return null;
+    }
+
     @Override
     public Void visitBreakStmt(@NotNull Stmt.Break stmt) {
-        throw new Break();
+        throw Break.INSTANCE;
     }
 
     public Void visitContinueStmt(@NotNull Stmt.Continue stmt) {
-        throw new Continue();
+        throw Continue.INSTANCE;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
-        Object value = evaluate(expr.value);
+        return assign(expr, evaluate(expr.value));
+    }
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+    Object assign(Expr.Assign expr, Object value) {
+        if (expr.slot >= 0) {
+            if (expr.boxed) {
+                ((Cell)environment.slots[expr.slot]).value = value;
+            } else {
+                environment.slots[expr.slot] = value;
+            }
+        } else if (expr.upvalue >= 0) {
+            ((Cell)environment.upvalues[expr.upvalue]).value = value;
         } else {
-            globals.assign(expr.name, value);
+            globals.assign(expr.global, expr.name, value);
         }
 
         return value;
     }
 
+    @Override
+    public Object visitAwaitExpr(Expr.Await expr) {
+        Object value = evaluate(expr.value);
+        if (!(value instanceof LoxPromise promise)) return value;
+
+        // Only top-level code gets here: async functions await in a Resumable.
+        try {
+            return loop.await(promise);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.keyword, error.getMessage());
+        }
+    }
+
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
@@ -282,6 +632,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
 
+        if (expr.inlineBody != null && callee instanceof LoxFunction function &&
+                function.declaration == expr.inlineTarget) {
+            return callInlined(expr);
+        }
+
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
@@ -291,18 +646,45 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
 
-        if (arguments.size() != callable.arity()) {
+        // Java methods with overloads taking different numbers of arguments
+        // have no fixed arity.
+        if (callable.arity() >= 0 && arguments.size() != callable.arity()) {
             throw new RuntimeError(expr.paren, "Expected " +
                     callable.arity() + " arguments but got " +
                     arguments.size() + ".");
         }
 
-        return callable.call(currentInterpreter, arguments);
+        try {
+            return callable.call(this, arguments);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    private Object callInlined(Expr.Call expr) {
+        assert expr.inlineParams != null && expr.inlineBody != null;
+        List<Stmt.Var> params = expr.inlineParams;
+        for (int i = 0; i < params.size(); i++) {
+            Stmt.Var param = params.get(i);
+            Object argument = evaluate(expr.arguments.get(i));
+            if (param.global >= 0) {
+                globals.define(param.global, argument);
+            } else {
+                define(param.name, param.slot, param.boxed, argument);
+            }
+        }
+
+        Object result = evaluate(expr.inlineBody);
+        // Parameters in hidden global slots would keep the arguments alive.
+        for (Stmt.Var param : params) {
+            if (param.global >= 0) globals.define(param.global, null);
+        }
+        return result;
     }
 
     @Override
     public Object visitLambdaExpr(Expr.Lambda expr) {
-        return new LoxFunction(expr.function, environment, false);
+        return new LoxFunction(expr.function, captureUpvalues(expr.function), globals, false);
     }
 
     @Override
@@ -312,8 +694,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (object instanceof LoxInstance instance) {
             return instance.get(expr.name);
         } else if (object instanceof LoxModule module) {
-            currentInterpreter = module.interpreter;
-            return module.get(expr.name);
+            LoxModule.Export export = module.export(expr.export, expr.name);
+            expr.export = export;
+            return module.get(export, expr.name);
+        } else if (object instanceof LoxObject value) {
+            return value.get(expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only instances and imports have properties.");
@@ -342,6 +727,79 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.right);
     }
 
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.obj);
+        Object index = evaluate(expr.index);
+
+        if (object instanceof LoxList list) {
+            return list.get(list.index(expr.bracket, index));
+        } else if (object instanceof LoxMap map) {
+            return map.get(LoxMap.key(expr.bracket, index));
+        } else if (object instanceof LoxNumArray array) {
+            return array.get(array.index(expr.bracket, index));
+        } else if (object instanceof LoxBytes bytes) {
+            return bytes.get(bytes.index(expr.bracket, index));
+        } else if (object instanceof LoxVector vector) {
+            return vector.get(vector.index(expr.bracket, index));
+        } else if (object instanceof LoxPersistentMap map) {
+            return map.get(LoxMap.key(expr.bracket, index));
+        }
+
+        throw new RuntimeError(expr.bracket, "Only lists, maps, vectors, number arrays and bytes can be indexed.");
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        Object object = evaluate(expr.obj);
+        Object index = evaluate(expr.index);
+
+        if (object instanceof LoxList list) {
+            int i = list.index(expr.bracket, index);
+            Object value = evaluate(expr.value);
+            list.set(expr.bracket, i, value);
+            return value;
+        } else if (object instanceof LoxMap map) {
+            Object key = LoxMap.key(expr.bracket, index);
+            Object value = evaluate(expr.value);
+            map.put(expr.bracket, key, value);
+            return value;
+        } else if (object instanceof LoxNumArray array) {
+            int i = array.index(expr.bracket, index);
+            Object value = evaluate(expr.value);
+            array.set(expr.bracket, i, value);
+            return value;
+        } else if (object instanceof LoxBytes bytes) {
+            long i = bytes.index(expr.bracket, index);
+            Object value = evaluate(expr.value);
+            bytes.set(expr.bracket, i, value);
+            return value;
+        } else if (object instanceof LoxVector || object instanceof LoxPersistentMap) {
+            throw new RuntimeError(expr.bracket, "Persistent collections can't be changed in place, use set().");
+        }
+
+        throw new RuntimeError(expr.bracket, "Only lists, maps, vectors, number arrays and bytes can be indexed.");
+    }
+
+    @Override
+    public Object visitListLiteralExpr(Expr.ListLiteral expr) {
+        LoxList list = new LoxList();
+        for (Expr element : expr.elements) {
+            list.add(evaluate(element));
+        }
+        return list;
+    }
+
+    @Override
+    public Object visitMapLiteralExpr(Expr.MapLiteral expr) {
+        LoxMap map = new LoxMap();
+        for (int i = 0; i < expr.keys.size(); i++) {
+            Object key = LoxMap.key(expr.brace, evaluate(expr.keys.get(i)));
+            map.put(expr.brace, key, evaluate(expr.values.get(i)));
+        }
+        return map;
+    }
+
     @Override
     public Object visitSetExpr(Expr.Set expr) {
         Object object = evaluate(expr.obj);
@@ -351,8 +809,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             instance.set(expr.name, value);
             return value;
         } else if (object instanceof LoxModule module) {
+            LoxModule.Export export = module.export(expr.export, expr.name);
+            expr.export = export;
             Object value = evaluate(expr.value);
-            module.set(expr.name, value);
+            module.set(export, expr.name, value);
             return value;
         }
 
@@ -361,9 +821,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(@NotNull Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt( distance, "super");
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
+        assert expr.receiver != null;
+        LoxClass superclass = (LoxClass)environment.upvalues[expr.upvalue];
+        LoxInstance object = (LoxInstance)evaluate(expr.receiver);
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
 
         if (method == null) {
@@ -375,7 +835,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(@NotNull Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        if (expr.slot >= 0) return environment.slots[expr.slot];
+        return environment.upvalues[expr.upvalue];
     }
 
     @Override
@@ -394,18 +855,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(@NotNull Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        Object value;
+        if (expr.slot >= 0) {
+            value = environment.slots[expr.slot];
+        } else if (expr.upvalue >= 0) {
+            value = environment.upvalues[expr.upvalue];
+        } else {
+            return globals.get(expr.global, expr.name);
+        }
+
+        return expr.boxed ? ((Cell)value).value : value;
+    }
+
+    // Boxed variables get their Cell before the initializer runs, so closures
+    // created by the initializer share it.
+    private void declare(int slot, boolean boxed) {
+        if (boxed) environment.define(slot, new Cell(null));
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private void define(Token name, int slot, boolean boxed, Object value) {
+        if (slot < 0) {
+            globals.define(name.lexeme, value);
+        } else if (boxed) {
+            ((Cell)environment.slots[slot]).value = value;
         } else {
-            return globals.get(name);
+            environment.define(slot, value);
         }
     }
 
+    private Object[] captureUpvalues(Stmt.Function function) {
+        int[] indexes = function.upvalues;
+        if (indexes == null) return null;
+
+        Object[] upvalues = new Object[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            int index = indexes[i];
+            upvalues[i] = index >= 0 ? environment.slots[index] : environment.upvalues[-1 - index];
+        }
+        return upvalues;
+    }
+
     private void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
@@ -416,7 +905,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
@@ -429,15 +918,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
+        if (object instanceof Double number) {
+            StringBuilder text = new StringBuilder();
+            LoxOutput.appendNumber(text, number);
+            return text.toString();
         }
 
         return object.toString();
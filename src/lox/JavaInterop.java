@@ -0,0 +1,402 @@
+package lox;
+
+import lox.token.Token;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+// Java classes and objects seen from Lox. Every public method is bound once,
+// when its class is first used, to a MethodHandle adapted to take Lox values
+// and return one: each parameter gets a converter from the Lox value (a
+// number to a double or an int, a string to a String, ...) and the result
+// one back, so a call only runs the converters and the method, without
+// reflection.
+//
+// Overloads are told apart by the number of arguments and then by whether
+// the arguments convert, trying those that take doubles, strings and booleans
+// before those that narrow numbers. Objects of other Java types are wrapped,
+// and their public methods can be called the same way.
+final class JavaInterop {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandles.Lookup PUBLIC = MethodHandles.publicLookup();
+
+    // The public instance methods of a class, by name.
+    private static final ClassValue<Map<String, Overloads>> INSTANCE_METHODS = new ClassValue<>() {
+        @Override
+        protected Map<String, Overloads> computeValue(Class<?> type) {
+            Map<String, List<Invoker>> methods = new HashMap<>();
+            // Methods with the same parameters differ in their return type,
+            // and all but one are bridges. Bridges are still needed for the
+            // public methods a class inherits from one that isn't public.
+            Map<List<Object>, Method> signatures = new LinkedHashMap<>();
+            for (Method method : type.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers())) continue;
+
+                List<Object> signature = List.of(method.getName(), List.of(method.getParameterTypes()));
+                Method other = signatures.get(signature);
+                if (other == null || other.isBridge()) signatures.put(signature, method);
+            }
+
+            for (Method method : signatures.values()) {
+                MethodHandle handle = accessible(type, method);
+                if (handle != null) {
+                    methods.computeIfAbsent(method.getName(), name -> new ArrayList<>()).add(invoker(handle, false));
+                }
+            }
+            return overloads(methods);
+        }
+    };
+
+    // Thrown by the converters when an argument doesn't fit the parameter,
+    // so the next overload is tried.
+    private static final class Mismatch extends RuntimeException {
+        static final Mismatch INSTANCE = new Mismatch();
+
+        private Mismatch() {
+            super(null, null, false, false);
+        }
+    }
+
+    private JavaInterop() {
+    }
+
+    // A Java value as a Lox value: numbers become doubles, characters
+    // strings, and objects that aren't already Lox values are wrapped.
+    static Object toLox(Object value) {
+        if (value == null || value instanceof Double || value instanceof String || value instanceof Boolean) {
+            return value;
+        }
+        if (value instanceof Number number) return number.doubleValue();
+        if (value instanceof Character character) return character.toString();
+        if (value instanceof LoxObject || value instanceof LoxCallable || value instanceof LoxInstance) return value;
+        return new JavaObject(value);
+    }
+
+    // A Lox value as a Java value, unwrapping Java objects.
+    static Object toJava(Object value) {
+        return value instanceof JavaObject object ? object.value : value;
+    }
+
+    // The public static methods and fields of the class, and its public
+    // constructors as new().
+    static LoxObject statics(Class<?> type) {
+        Map<String, List<Invoker>> methods = new HashMap<>();
+        Map<String, MethodHandle> fields = new HashMap<>();
+        try {
+            for (Method method : type.getMethods()) {
+                if (!Modifier.isStatic(method.getModifiers())) continue;
+                methods.computeIfAbsent(method.getName(), name -> new ArrayList<>())
+                        .add(invoker(PUBLIC.unreflect(method), true));
+            }
+            for (Constructor<?> constructor : type.getConstructors()) {
+                methods.computeIfAbsent("new", name -> new ArrayList<>())
+                        .add(invoker(PUBLIC.unreflectConstructor(constructor), true));
+            }
+            for (Field field : type.getFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) continue;
+                fields.put(field.getName(), fromJava(PUBLIC.unreflectGetter(field)));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Can't access the members of " + type.getName() + ".", e);
+        }
+
+        return new JavaClass(type, overloads(methods), fields);
+    }
+
+    // A handle to the method that the public lookup can use. Public methods
+    // of classes that aren't public are reached through a public supertype
+    // declaring them.
+    private static MethodHandle accessible(Class<?> type, Method method) {
+        try {
+            return PUBLIC.unreflect(method);
+        } catch (IllegalAccessException ignored) {
+            // Look for it in the supertypes.
+        }
+
+        List<Class<?>> supertypes = new ArrayList<>(Arrays.asList(type.getInterfaces()));
+        if (type.getSuperclass() != null) supertypes.add(type.getSuperclass());
+        for (Class<?> supertype : supertypes) {
+            try {
+                Method declared = supertype.getMethod(method.getName(), method.getParameterTypes());
+                MethodHandle handle = accessible(supertype, declared);
+                if (handle != null) return handle;
+            } catch (NoSuchMethodException ignored) {
+                // Not declared there.
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Overloads> overloads(Map<String, List<Invoker>> methods) {
+        Map<String, Overloads> overloads = new HashMap<>();
+        for (Map.Entry<String, List<Invoker>> entry : methods.entrySet()) {
+            overloads.put(entry.getKey(), new Overloads(entry.getKey(), entry.getValue()));
+        }
+        return overloads;
+    }
+
+    // A method adapted to (Object receiver, Object[] arguments) -> Object,
+    // with the receiver ignored for static methods and constructors.
+    private record Invoker(MethodHandle handle, int arity, int rank) {
+    }
+
+    private static Invoker invoker(MethodHandle target, boolean isStatic) {
+        MethodType type = target.type();
+        MethodHandle handle = fromJava(target);
+
+        int rank = 0;
+        for (int i = 0; i < type.parameterCount(); i++) {
+            Class<?> parameter = type.parameterType(i);
+            boolean isReceiver = !isStatic && i == 0;
+            handle = MethodHandles.filterArguments(handle, i, isReceiver ? cast(parameter) : convert(parameter));
+            if (!isReceiver) rank += rank(parameter);
+        }
+
+        if (isStatic) handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        int arity = isStatic ? type.parameterCount() : type.parameterCount() - 1;
+        handle = handle.asSpreader(Object[].class, arity);
+        return new Invoker(handle.asType(MethodType.methodType(Object.class, Object.class, Object[].class)), arity, rank);
+    }
+
+    // How much is lost converting a Lox value to the type, to try the
+    // overloads losing the least first.
+    private static int rank(Class<?> type) {
+        if (type == double.class || type == Double.class || type == String.class || type == boolean.class ||
+                type == Boolean.class) {
+            return 0;
+        }
+        if (type == int.class || type == Integer.class || type == long.class || type == Long.class) return 1;
+        if (type == Object.class) return 3;
+        if (type.isPrimitive() || Number.class.isAssignableFrom(type) || type == Character.class) return 2;
+        return 0;
+    }
+
+    // Converts the result to a Lox value.
+    private static MethodHandle fromJava(MethodHandle handle) {
+        Class<?> type = handle.type().returnType();
+        if (type == void.class || type == boolean.class || type == String.class) return handle;
+        if (type == char.class) return MethodHandles.filterReturnValue(handle, find("fromChar", String.class, char.class));
+        if (type.isPrimitive()) {
+            return MethodHandles.explicitCastArguments(handle, handle.type().changeReturnType(double.class));
+        }
+        return MethodHandles.filterReturnValue(handle.asType(handle.type().changeReturnType(Object.class)),
+                find("toLox", Object.class, Object.class));
+    }
+
+    // A converter from a Lox value to the type.
+    private static MethodHandle convert(Class<?> type) {
+        if (type == double.class || type == Double.class || type == float.class || type == Float.class) {
+            return converter("toDouble", double.class, type);
+        }
+        if (type == long.class || type == Long.class) return converter("toLong", long.class, type);
+        if (type == int.class || type == Integer.class || type == short.class || type == Short.class ||
+                type == byte.class || type == Byte.class) {
+            return converter("toInt", int.class, type);
+        }
+        if (type == char.class || type == Character.class) return converter("toChar", char.class, type);
+        if (type == boolean.class || type == Boolean.class) return converter("toBoolean", boolean.class, type);
+        if (type == Object.class) return find("toJava", Object.class, Object.class);
+        return cast(type);
+    }
+
+    // The converter to the primitive type, narrowed to the parameter type
+    // and boxed if it's a wrapper.
+    private static MethodHandle converter(String name, Class<?> primitive, Class<?> type) {
+        MethodHandle converter = find(name, primitive, Object.class);
+        Class<?> unboxed = MethodType.methodType(type).unwrap().returnType();
+        MethodHandle narrowed = MethodHandles.explicitCastArguments(converter,
+                MethodType.methodType(unboxed, Object.class));
+        return narrowed.asType(MethodType.methodType(type, Object.class));
+    }
+
+    // A converter to a reference type, accepting nil and wrapped objects of
+    // the type.
+    private static MethodHandle cast(Class<?> type) {
+        MethodHandle cast = MethodHandles.insertArguments(find("cast", Object.class, Class.class, Object.class), 0, type);
+        return cast.asType(MethodType.methodType(type, Object.class));
+    }
+
+    private static MethodHandle find(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findStatic(JavaInterop.class, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Double number) return number;
+        throw Mismatch.INSTANCE;
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Double number && number % 1 == 0 && number >= Long.MIN_VALUE && number <= Long.MAX_VALUE) {
+            return (long)(double)number;
+        }
+        throw Mismatch.INSTANCE;
+    }
+
+    private static int toInt(Object value) {
+        if (value instanceof Double number && number % 1 == 0 &&
+                number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+            return (int)(double)number;
+        }
+        throw Mismatch.INSTANCE;
+    }
+
+    private static char toChar(Object value) {
+        if (value instanceof String string && string.length() == 1) return string.charAt(0);
+        throw Mismatch.INSTANCE;
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean bool) return bool;
+        throw Mismatch.INSTANCE;
+    }
+
+    private static String fromChar(char value) {
+        return String.valueOf(value);
+    }
+
+    private static Object cast(Class<?> type, Object value) {
+        Object unwrapped = toJava(value);
+        if (unwrapped == null || type.isInstance(unwrapped)) return unwrapped;
+        throw Mismatch.INSTANCE;
+    }
+
+    // The methods with one name.
+    private static final class Overloads {
+        final String name;
+        final Invoker[] invokers;
+        // -1 when the overloads take different numbers of arguments.
+        final int arity;
+
+        Overloads(String name, List<Invoker> invokers) {
+            this.name = name;
+            this.invokers = invokers.stream()
+                    .sorted(Comparator.comparingInt(Invoker::rank))
+                    .toArray(Invoker[]::new);
+            int arity = this.invokers[0].arity();
+            for (Invoker invoker : this.invokers) {
+                if (invoker.arity() != arity) arity = -1;
+            }
+            this.arity = arity;
+        }
+
+        Object call(Object receiver, List<Object> arguments) {
+            Object[] values = arguments.toArray();
+            boolean found = false;
+            for (Invoker invoker : invokers) {
+                if (invoker.arity() != values.length) continue;
+                found = true;
+                try {
+                    return (Object)invoker.handle().invokeExact(receiver, values);
+                } catch (Mismatch ignored) {
+                    // Try the next one.
+                } catch (RuntimeError | NativeError error) {
+                    throw error;
+                } catch (Throwable error) {
+                    String message = error.getMessage();
+                    throw new NativeError(error.getClass().getName() + (message != null ? ": " + message : ""));
+                }
+            }
+
+            if (!found) throw new NativeError("No overload of '" + name + "' takes " + values.length + " arguments.");
+            throw new NativeError("Wrong argument types for '" + name + "'.");
+        }
+
+        LoxCallable bind(Object receiver) {
+            return new LoxCallable() {
+                @Override
+                public int arity() {
+                    return arity;
+                }
+
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    return Overloads.this.call(receiver, arguments);
+                }
+
+                @Override
+                public String toString() {
+                    return "<java method " + name + ">";
+                }
+            };
+        }
+    }
+
+    // A Java class given to Lox with LoxEngine.defineClass().
+    private static final class JavaClass implements LoxObject {
+        private final Class<?> type;
+        private final Map<String, Overloads> methods;
+        private final Map<String, MethodHandle> fields;
+
+        JavaClass(Class<?> type, Map<String, Overloads> methods, Map<String, MethodHandle> fields) {
+            this.type = type;
+            this.methods = methods;
+            this.fields = fields;
+        }
+
+        @Override
+        public Object get(Token name) {
+            Overloads overloads = methods.get(name.lexeme);
+            if (overloads != null) return overloads.bind(null);
+
+            MethodHandle field = fields.get(name.lexeme);
+            if (field != null) {
+                try {
+                    return field.invoke();
+                } catch (Throwable e) {
+                    throw new RuntimeError(name, "Can't read field '" + name.lexeme + "'.");
+                }
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<java class " + type.getName() + ">";
+        }
+    }
+
+    // A Java object that isn't a Lox value.
+    static final class JavaObject implements LoxObject {
+        final Object value;
+        private final Map<String, Overloads> methods;
+
+        JavaObject(Object value) {
+            this.value = value;
+            this.methods = INSTANCE_METHODS.get(value.getClass());
+        }
+
+        @Override
+        public Object get(Token name) {
+            Overloads overloads = methods.get(name.lexeme);
+            if (overloads != null) return overloads.bind(value);
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof JavaObject object && value.equals(object.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return value.toString();
+        }
+    }
+}
@@ -1,14 +1,13 @@
 package lox;
 
-import lox.token.Token;
 import lox.tool_gen.Stmt;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
@@ -16,9 +15,10 @@ public class Lox {
     private static final Interpreter interpreter = new Interpreter(moduleInfo);
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: lox-java [script]");
-            System.exit(64);
+        if (args.length > 0 && (args[0].equals("-n") || args[0].equals("-p"))) {
+            runLines(args);
+        } else if (args.length > 1) {
+            usage();
         } else if (args.length == 1) {
             runFile(args[0]);
         } else {
@@ -26,7 +26,13 @@ public class Lox {
         }
     }
 
-    private static void runFile(String path) {
+    private static void usage() {
+        System.out.println("Usage: lox-java [script]");
+        System.out.println("       lox-java -n|-p (-e code | script) [file...]");
+        System.exit(64);
+    }
+
+    private static String readSource(String path) {
         byte[] bytes = null;
         try {
             bytes = Files.readAllBytes(Paths.get(path));
@@ -34,41 +40,85 @@ public class Lox {
             System.err.println("Error reading file: " + path);
             System.exit(71);
         }
-        run(new String(bytes, Charset.defaultCharset()));
+        return new String(bytes, Charset.defaultCharset());
+    }
+
+    private static void runFile(String path) {
+        try {
+            run(readSource(path));
+        } catch (ModuleLoadError error) {
+            System.exit(error.exitCode);
+        }
+
+        exitOnError();
+    }
+
+    // -n runs the code for every line of the files, or of stdin if none are
+    // given, with the line in 'line'. -p also prints 'line' after each run.
+    private static void runLines(String[] args) {
+        boolean print = args[0].equals("-p");
+        String source;
+        int inputs;
+        if (args.length > 2 && args[1].equals("-e")) {
+            source = args[2];
+            inputs = 3;
+        } else if (args.length > 1) {
+            source = readSource(args[1]);
+            inputs = 2;
+        } else {
+            usage();
+            return;
+        }
+        List<String> paths = List.of(args).subList(inputs, args.length);
+        LoxIterable input = paths.isEmpty() ? LoxFile.stdinLines() : (interpreter, body) -> {
+            for (String path : paths) {
+                LoxStream.lines(path).iterate(interpreter, body);
+            }
+        };
+
+        // Declared before resolving, so the code can use it.
+        interpreter.globals.define("line", null);
+        try {
+            List<Stmt> statements = LoxEngine.parse(source, moduleInfo);
+            if (statements != null) {
+                List<Stmt.Var> state = Interpreter.hoistBeginVariables(statements);
+                List<Stmt> program = new ArrayList<>(state);
+                program.addAll(statements);
+                if (LoxEngine.resolve(program, moduleInfo, interpreter.globals)) {
+                    interpreter.interpretLines(state, statements, input, print);
+                }
+            }
+        } catch (ModuleLoadError error) {
+            System.exit(error.exitCode);
+        }
 
-        // Indicate an error in the exit code.
+        exitOnError();
+    }
+
+    // Indicate an error in the exit code.
+    private static void exitOnError() {
         if (moduleInfo.hadError) System.exit(65);
         if (moduleInfo.hadRuntimeError) System.exit(70);
     }
 
     private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+        BufferedReader reader = LoxFile.Stdin.READER;
 
         for (;;) {
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
+            try {
+                run(line);
+            } catch (ModuleLoadError ignored) {
+                // Already reported.
+            }
             moduleInfo.hadError = false;
         }
     }
 
     private static void run(String source) {
-        Scanner scanner = new Scanner(source, moduleInfo);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens, moduleInfo);
-        List<Stmt> statements = parser.parse();
-
-        // Stop if there was a syntax error.
-        if (moduleInfo.hadError) return;
-
-        Resolver resolver = new Resolver(interpreter, moduleInfo);
-        resolver.resolve(statements);
-
-        // Stop if there was a resolution error.
-        if (moduleInfo.hadError) return;
-
-        interpreter.interpret(statements);
+        List<Stmt> statements = LoxEngine.compile(source, moduleInfo, interpreter.globals);
+        if (statements != null) interpreter.interpret(statements);
     }
 }
@@ -0,0 +1,361 @@
+package lox;
+
+import lox.token.Token;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+
+// Binary data outside the Java heap: a direct buffer from Bytes.alloc(), or a
+// file mapped into memory by Bytes.map(), which the OS pages in as it's read.
+// slice(), littleEndian() and bigEndian() return views of the same bytes, so
+// a large file can be cut into records and read as numbers without copying
+// any of it. Only string() and lines() copy, decoding the bytes as UTF-8.
+//
+// Numbers are read with getU8(offset) ... getF64(offset) and written with
+// setU8(offset, value) ... setF64(offset, value), in the byte order of the
+// view (big-endian unless asked otherwise). Indexing reads and writes single
+// unsigned bytes.
+//
+// A ByteBuffer holds at most 2GB, so the bytes are kept in chunks of 1GB,
+// addressed with long offsets. Each chunk reaches 7 bytes into the next one,
+// so a number starting in a chunk can always be read from it.
+class LoxBytes implements LoxObject, LoxIterable {
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    private static final int OVERLAP = 7;
+
+    // The Bytes global, which makes byte buffers.
+    static final LoxObject FACTORIES = new LoxObject() {
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "alloc":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof Double size) || size < 0 || size % 1 != 0 ||
+                                size > Integer.MAX_VALUE) {
+                            throw new NativeError("Size must be a non-negative integer.");
+                        }
+                        return new LoxBytes(ByteBuffer.allocateDirect((int)(double)size));
+                    });
+                case "map":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof String path)) {
+                            throw new NativeError("Path must be a string.");
+                        }
+                        return map(path);
+                    });
+                case "of":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof String string)) {
+                            throw new NativeError("Can only make bytes of a string.");
+                        }
+                        return new LoxBytes(ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8)));
+                    });
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<native Bytes>";
+        }
+    };
+
+    // The number types, named as in getU16() and setU16().
+    private enum Type {
+        U8(1), I8(1), U16(2), I16(2), U32(4), I32(4), F32(4), F64(8);
+
+        final int size;
+
+        Type(int size) {
+            this.size = size;
+        }
+
+        static Type named(String name) {
+            for (Type type : values()) {
+                if (type.name().equals(name)) return type;
+            }
+            return null;
+        }
+
+        double read(ByteBuffer buffer, int offset) {
+            return switch (this) {
+                case U8 -> buffer.get(offset) & 0xFF;
+                case I8 -> buffer.get(offset);
+                case U16 -> buffer.getShort(offset) & 0xFFFF;
+                case I16 -> buffer.getShort(offset);
+                case U32 -> buffer.getInt(offset) & 0xFFFFFFFFL;
+                case I32 -> buffer.getInt(offset);
+                case F32 -> buffer.getFloat(offset);
+                case F64 -> buffer.getDouble(offset);
+            };
+        }
+
+        // Integers keep their low bits, so signed and unsigned values can
+        // both be written with either type.
+        void write(ByteBuffer buffer, int offset, double value) {
+            switch (this) {
+                case U8, I8 -> buffer.put(offset, (byte)(long)value);
+                case U16, I16 -> buffer.putShort(offset, (short)(long)value);
+                case U32, I32 -> buffer.putInt(offset, (int)(long)value);
+                case F32 -> buffer.putFloat(offset, (float)value);
+                case F64 -> buffer.putDouble(offset, value);
+            }
+        }
+    }
+
+    // The chunks of all the bytes the view is part of, in the view's byte
+    // order, and where the view is in them. Read-only once frozen.
+    private ByteBuffer[] chunks;
+    private final long start;
+    private final long length;
+
+    private LoxBytes(ByteBuffer buffer) {
+        this(chunks(buffer), 0, buffer.limit());
+    }
+
+    private LoxBytes(ByteBuffer[] chunks, long start, long length) {
+        this.chunks = chunks;
+        this.start = start;
+        this.length = length;
+    }
+
+    private static ByteBuffer[] chunks(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        ByteBuffer[] chunks = new ByteBuffer[(int)((limit + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            int from = i << CHUNK_SHIFT;
+            chunks[i] = buffer.slice(from, (int)Math.min(limit - from, CHUNK_MASK + 1 + OVERLAP));
+        }
+        return chunks;
+    }
+
+    // The mapping stays valid after the channel is closed, until the buffers
+    // are garbage collected.
+    private static LoxBytes map(String path) {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer[] chunks = new ByteBuffer[(int)((size + CHUNK_MASK) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long from = (long)i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, from,
+                        Math.min(size - from, CHUNK_MASK + 1 + OVERLAP));
+            }
+            return new LoxBytes(chunks, 0, size);
+        } catch (IOException | InvalidPathException e) {
+            throw new NativeError("Error mapping file: " + path);
+        }
+    }
+
+    private ByteBuffer chunk(long position) {
+        return chunks[(int)(position >>> CHUNK_SHIFT)];
+    }
+
+    private static int within(long position) {
+        return (int)(position & CHUNK_MASK);
+    }
+
+    private boolean isReadOnly() {
+        return chunks.length > 0 && chunks[0].isReadOnly();
+    }
+
+    // Makes the view read-only, and the views made from it from now on.
+    void freeze() {
+        ByteBuffer[] readOnly = new ByteBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            readOnly[i] = chunks[i].asReadOnlyBuffer().order(chunks[i].order());
+        }
+        chunks = readOnly;
+    }
+
+    // The same bytes in another byte order.
+    private LoxBytes order(ByteOrder order) {
+        ByteBuffer[] ordered = new ByteBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            ordered[i] = chunks[i].duplicate().order(order);
+        }
+        return new LoxBytes(ordered, start, length);
+    }
+
+    // Copies bytes of the view into the array, chunk by chunk.
+    private void copy(long from, byte[] into, int count) {
+        int copied = 0;
+        while (copied < count) {
+            long position = start + from + copied;
+            int offset = within(position);
+            int n = (int)Math.min(count - copied, CHUNK_MASK + 1 - offset);
+            chunk(position).get(offset, into, copied, n);
+            copied += n;
+        }
+    }
+
+    // The offset a Lox value refers to, with room for size bytes after it.
+    private long offset(Object value, int size) {
+        if (!(value instanceof Double offset) || offset % 1 != 0) {
+            throw new NativeError("Offset must be an integer.");
+        }
+        if (offset < 0 || offset > length - size) throw new NativeError("Offset out of range.");
+        return (long)(double)offset;
+    }
+
+    private static double value(Object value) {
+        if (!(value instanceof Double number)) throw new NativeError("Value must be a number.");
+        return number;
+    }
+
+    // The index a Lox value refers to.
+    long index(Token bracket, Object index) {
+        if (!(index instanceof Double number) || number % 1 != 0) {
+            throw new RuntimeError(bracket, "Bytes index must be an integer.");
+        }
+        if (number < 0 || number >= length) {
+            throw new RuntimeError(bracket, "Bytes index out of range.");
+        }
+        return (long)(double)number;
+    }
+
+    double get(long index) {
+        return byteAt(index) & 0xFF;
+    }
+
+    private byte byteAt(long index) {
+        long position = start + index;
+        return chunk(position).get(within(position));
+    }
+
+    void set(Token bracket, long index, Object value) {
+        if (!(value instanceof Double number)) throw new RuntimeError(bracket, "Value must be a number.");
+        if (isReadOnly()) throw new RuntimeError(bracket, "Cannot modify read-only bytes.");
+        long position = start + index;
+        chunk(position).put(within(position), (byte)(long)(double)number);
+    }
+
+    private LoxBytes slice(Object start, Object end) {
+        long from = offset(start, 0);
+        long to = offset(end, 0);
+        if (to < from) throw new NativeError("Slice end must not be before its start.");
+        return new LoxBytes(chunks, this.start + from, to - from);
+    }
+
+    private double indexOf(Object value, Object start) {
+        byte b = (byte)(long)value(value);
+        for (long i = offset(start, 0); i < length; i++) {
+            if (byteAt(i) == b) return i;
+        }
+        return -1;
+    }
+
+    // Splits the bytes at '\n', dropping a '\r' before it, and decodes the
+    // lines as UTF-8 while the stream runs. Each line is copied once, into a
+    // reused array, before it's decoded.
+    private LoxStream lines() {
+        return new LoxStream((interpreter, body) -> {
+            byte[] line = new byte[256];
+            long start = 0;
+            while (start < length) {
+                long end = start;
+                while (end < length && byteAt(end) != '\n') end++;
+                long next = end + 1;
+                if (end > start && byteAt(end - 1) == '\r') end--;
+
+                int size = size(end - start);
+                if (size > line.length) line = new byte[Math.max(size, line.length * 2)];
+                copy(start, line, size);
+                if (!body.test(new String(line, 0, size, StandardCharsets.UTF_8))) return;
+                start = next;
+            }
+        });
+    }
+
+    // Bytes decoded together have to fit in an array.
+    private static int size(long length) {
+        if (length > Integer.MAX_VALUE - 8) throw new NativeError("Too many bytes to decode at once.");
+        return (int)length;
+    }
+
+    private String string(Object start, Object end) {
+        LoxBytes slice = slice(start, end);
+        byte[] bytes = new byte[size(slice.length)];
+        slice.copy(0, bytes, bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void iterate(Interpreter interpreter, Predicate<Object> body) {
+        for (long i = 0; i < length; i++) {
+            if (!body.test(get(i))) return;
+        }
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new Cursor() {
+            private long index = 0;
+
+            @Override
+            public boolean hasNext(Interpreter interpreter) {
+                return index < length;
+            }
+
+            @Override
+            public Object next(Interpreter interpreter) {
+                return get(index++);
+            }
+        };
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)length;
+            case "slice":
+                return new LoxNative(2, (interpreter, arguments) -> slice(arguments.get(0), arguments.get(1)));
+            case "littleEndian":
+                return new LoxNative(0, (interpreter, arguments) -> order(ByteOrder.LITTLE_ENDIAN));
+            case "bigEndian":
+                return new LoxNative(0, (interpreter, arguments) -> order(ByteOrder.BIG_ENDIAN));
+            case "indexOf":
+                return new LoxNative(2, (interpreter, arguments) -> indexOf(arguments.get(0), arguments.get(1)));
+            case "string":
+                return new LoxNative(2, (interpreter, arguments) -> string(arguments.get(0), arguments.get(1)));
+            case "lines":
+                return new LoxNative(0, (interpreter, arguments) -> lines());
+        }
+
+        Type type = name.lexeme.length() > 3 ? Type.named(name.lexeme.substring(3)) : null;
+        if (type != null && name.lexeme.startsWith("get")) {
+            return new LoxNative(1, (interpreter, arguments) -> {
+                long position = start + offset(arguments.get(0), type.size);
+                return type.read(chunk(position), within(position));
+            });
+        }
+        if (type != null && name.lexeme.startsWith("set")) {
+            return new LoxNative(2, (interpreter, arguments) -> {
+                long position = start + offset(arguments.get(0), type.size);
+                try {
+                    type.write(chunk(position), within(position), value(arguments.get(1)));
+                } catch (ReadOnlyBufferException e) {
+                    throw new NativeError("Cannot modify read-only bytes.");
+                }
+                return null;
+            });
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<bytes " + length + ">";
+    }
+}
@@ -0,0 +1,96 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A bounded queue for passing values between tasks. send() waits while the
+// channel is full and receive() while it is empty. Receiving from a closed
+// channel returns what is left in it, then nil.
+class LoxChannel implements LoxObject {
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    LoxChannel(int capacity) {
+        buffer = new Object[capacity];
+    }
+
+    void send(Object value) {
+        lock.lock();
+        try {
+            while (count == buffer.length && !closed) await(notFull);
+            if (closed) throw new NativeError("Send on a closed channel.");
+
+            buffer[(head + count) % buffer.length] = value;
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive() {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) await(notEmpty);
+            if (count == 0) return null;
+
+            Object value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void await(Condition condition) {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while waiting on a channel.");
+        }
+    }
+
+    @Override
+    public Object get(Token name) {
+        return switch (name.lexeme) {
+            case "send" -> new LoxNative(1, (interpreter, arguments) -> {
+                send(arguments.get(0));
+                return null;
+            });
+            case "receive" -> new LoxNative(0, (interpreter, arguments) -> receive());
+            case "close" -> new LoxNative(0, (interpreter, arguments) -> {
+                close();
+                return null;
+            });
+            default -> throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -0,0 +1,43 @@
+package lox;
+
+import lox.tool_gen.Stmt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// An isolated interpreter session with its own globals and output. Sources
+// evaluated in the same context see each other's globals, like lines typed
+// at the prompt. A context evaluates one source at a time; separate contexts
+// share nothing but the module registry and can run in parallel.
+public final class LoxContext {
+    private final ModuleInfo moduleInfo;
+    private final Interpreter interpreter;
+    private final List<String> errors = new ArrayList<>();
+    // Not synchronized, so a virtual thread waiting for the context doesn't
+    // pin its carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    LoxContext(ModuleRegistry modules, Globals globals, LoxOutput out) {
+        moduleInfo = new ModuleInfo("__main__", errors::add);
+        interpreter = new Interpreter(moduleInfo, globals, out, modules);
+    }
+
+    public Object eval(String source) throws LoxException {
+        lock.lock();
+        try {
+            errors.clear();
+            moduleInfo.hadError = false;
+            moduleInfo.hadRuntimeError = false;
+
+            List<Stmt> statements = LoxEngine.compile(source, moduleInfo, interpreter.globals);
+            if (statements == null) throw new LoxException(errors);
+
+            Object result = LoxEngine.run(interpreter, statements);
+            if (!errors.isEmpty()) throw new LoxException(errors);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
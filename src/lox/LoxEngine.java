@@ -0,0 +1,127 @@
+package lox;
+
+import lox.token.Token;
+import lox.tool_gen.Stmt;
+
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Runs Lox from other JVM code. The only state an engine has is the registry
+// of modules its scripts import, which is safe to share, and the Java values
+// given to it with define() and defineClass(). A compiled script is never
+// modified by running it, so both can be used from any number of threads at
+// once.
+public final class LoxEngine {
+    private final ModuleRegistry modules;
+    // Globals added to scripts and contexts made after they are defined.
+    private final Map<String, Object> definitions = new ConcurrentHashMap<>();
+
+    public LoxEngine() {
+        this.modules = new ModuleRegistry();
+    }
+
+    // Imports are read relative to moduleRoot.
+    public LoxEngine(Path moduleRoot) {
+        this.modules = new ModuleRegistry(moduleRoot);
+    }
+
+    public CompiledScript compile(String source) throws LoxException {
+        return compile("__main__", source);
+    }
+
+    public CompiledScript compile(String name, String source) throws LoxException {
+        List<String> errors = new ArrayList<>();
+        ModuleInfo moduleInfo = new ModuleInfo(name, errors::add);
+        Globals globals = newGlobals();
+
+        List<Stmt> statements = compile(source, moduleInfo, globals);
+        if (statements == null) throw new LoxException(errors);
+
+        return new CompiledScript(name, statements, globals, modules);
+    }
+
+    public Object eval(String source) throws LoxException {
+        return compile(source).execute();
+    }
+
+    public LoxContext newContext(Writer out) {
+        return new LoxContext(modules, newGlobals(), LoxOutput.of(out));
+    }
+
+    // Printed output is encoded as UTF-8 and written to the channel, such as
+    // an open file, in large blocks.
+    public LoxContext newContext(WritableByteChannel out) {
+        return new LoxContext(modules, newGlobals(), LoxOutput.of(out));
+    }
+
+    // Makes the value a global. Numbers, strings and booleans become Lox
+    // values, other Java objects can have their public methods called.
+    public void define(String name, Object value) {
+        definitions.put(name, JavaInterop.toLox(value));
+    }
+
+    // Makes a global with the public static methods and fields of the class,
+    // and its public constructors as new(). The methods are bound through
+    // method handles here, not looked up when they're called.
+    public void defineClass(String name, Class<?> type) {
+        definitions.put(name, JavaInterop.statics(type));
+    }
+
+    private Globals newGlobals() {
+        Globals globals = Interpreter.newGlobals();
+        for (Map.Entry<String, Object> definition : definitions.entrySet()) {
+            globals.define(definition.getKey(), definition.getValue());
+        }
+        return globals;
+    }
+
+    // Parses and resolves the source against the globals, or returns null if
+    // it has errors.
+    static List<Stmt> compile(String source, ModuleInfo moduleInfo, Globals globals) {
+        List<Stmt> statements = parse(source, moduleInfo);
+        if (statements == null || !resolve(statements, moduleInfo, globals)) return null;
+        return statements;
+    }
+
+    // The statements of the source, or null if it has syntax errors.
+    static List<Stmt> parse(String source, ModuleInfo moduleInfo) {
+        Scanner scanner = new Scanner(source, moduleInfo);
+        List<Token> tokens = scanner.scanTokens();
+        Parser parser = new Parser(tokens, moduleInfo);
+        List<Stmt> statements = parser.parse();
+
+        if (moduleInfo.hadError) return null;
+        return statements;
+    }
+
+    // Resolves parsed statements against the globals, returning false if
+    // they have errors.
+    static boolean resolve(List<Stmt> statements, ModuleInfo moduleInfo, Globals globals) {
+        Resolver resolver = new Resolver(moduleInfo, globals);
+        resolver.resolve(statements);
+
+        return !moduleInfo.hadError;
+    }
+
+    // Runs the statements and then the event loop, reporting a runtime error
+    // instead of throwing it.
+    static Object run(Interpreter interpreter, List<Stmt> statements) {
+        try {
+            Object result = interpreter.run(statements);
+            interpreter.loop.run();
+            return JavaInterop.toJava(result);
+        } catch (RuntimeError error) {
+            interpreter.moduleInfo.runtimeError(error);
+        } catch (ModuleLoadError ignored) {
+            // Already reported.
+        } finally {
+            interpreter.out.flush();
+        }
+        return null;
+    }
+}
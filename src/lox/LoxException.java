@@ -0,0 +1,18 @@
+package lox;
+
+import java.util.List;
+
+// Compile or runtime errors of a script run through LoxEngine, in the order
+// they were reported.
+public class LoxException extends Exception {
+    private final List<String> errors;
+
+    LoxException(List<String> errors) {
+        super(String.join("\n", errors));
+        this.errors = List.copyOf(errors);
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,274 @@
+package lox;
+
+import lox.token.Token;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+
+// The File and stdin globals. Files are read and written as UTF-8, stdin in
+// the platform's charset, like the prompt.
+//
+// lines() and chunks() return streams that read while they run, one buffer
+// at a time, so a file of any size is gone through in constant memory.
+// Bytes.map() maps a file instead, and its lines() splits the mapped bytes.
+class LoxFile {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    static final LoxObject FACTORIES = new LoxObject() {
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "read":
+                    return new LoxNative(1, (interpreter, arguments) -> read(path(arguments.get(0))));
+                case "lines":
+                    return new LoxNative(1, (interpreter, arguments) -> LoxStream.lines(path(arguments.get(0))));
+                case "chunks":
+                    return new LoxNative(2, (interpreter, arguments) ->
+                            chunks(path(arguments.get(0)), chunkSize(arguments.get(1))));
+                case "writer":
+                    return new LoxNative(1, (interpreter, arguments) ->
+                            Writer.open(interpreter, path(arguments.get(0)), StandardOpenOption.TRUNCATE_EXISTING));
+                case "appender":
+                    return new LoxNative(1, (interpreter, arguments) ->
+                            Writer.open(interpreter, path(arguments.get(0)), StandardOpenOption.APPEND));
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<native File>";
+        }
+    };
+
+    static final LoxObject STDIN = new LoxObject() {
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "readLine":
+                    return new LoxNative(0, (interpreter, arguments) -> {
+                        try {
+                            Stdin.beforeRead(interpreter);
+                            return Stdin.READER.readLine();
+                        } catch (IOException e) {
+                            throw new NativeError("Error reading stdin.");
+                        }
+                    });
+                case "read":
+                    return new LoxNative(0, (interpreter, arguments) -> {
+                        try {
+                            Stdin.beforeRead(interpreter);
+                            return readAll(Stdin.READER);
+                        } catch (IOException e) {
+                            throw new NativeError("Error reading stdin.");
+                        }
+                    });
+                case "lines":
+                    return new LoxNative(0, (interpreter, arguments) -> stdinLines());
+                case "chunks":
+                    return new LoxNative(1, (interpreter, arguments) -> stdinChunks(chunkSize(arguments.get(0))));
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<native stdin>";
+        }
+    };
+
+    // Made when stdin is first read. The prompt reads through it too, so
+    // neither buffers input the other should get.
+    static final class Stdin {
+        static final BufferedReader READER = new BufferedReader(new InputStreamReader(System.in), BUFFER_SIZE);
+
+        // Flushes what was printed before a read that may have to wait for
+        // input, so a prompt is shown before the user answers it. Input that
+        // is already there, as in a pipe, is read without flushing.
+        static void beforeRead(Interpreter interpreter) {
+            boolean ready;
+            try {
+                ready = READER.ready();
+            } catch (IOException e) {
+                ready = false;
+            }
+            if (!ready) interpreter.out.flush();
+        }
+    }
+
+    static BufferedReader reader(String path) throws IOException {
+        Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(path)), StandardCharsets.UTF_8);
+        return new BufferedReader(reader, BUFFER_SIZE);
+    }
+
+    private static String path(Object value) {
+        if (!(value instanceof String path)) throw new NativeError("Path must be a string.");
+        return path;
+    }
+
+    private static int chunkSize(Object value) {
+        if (!(value instanceof Double size) || size < 1 || size % 1 != 0 || size > Integer.MAX_VALUE) {
+            throw new NativeError("Chunk size must be a positive integer.");
+        }
+        return (int)(double)size;
+    }
+
+    private static String read(String path) {
+        try {
+            return Files.readString(Paths.get(path));
+        } catch (IOException | InvalidPathException e) {
+            throw new NativeError("Error reading file: " + path);
+        }
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[BUFFER_SIZE];
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            text.append(buffer, 0, count);
+        }
+        return text.toString();
+    }
+
+    private static LoxStream chunks(String path, int size) {
+        return new LoxStream((interpreter, body) -> {
+            try (BufferedReader reader = reader(path)) {
+                chunks(reader, size, body, () -> {});
+            } catch (IOException | InvalidPathException e) {
+                throw new NativeError("Error reading file: " + path);
+            }
+        });
+    }
+
+    // Stdin is shared, so a stream run again, or after readLine(), goes on
+    // from where the last read stopped.
+    static LoxStream stdinLines() {
+        return new LoxStream((interpreter, body) -> {
+            try {
+                for (;;) {
+                    Stdin.beforeRead(interpreter);
+                    String line = Stdin.READER.readLine();
+                    if (line == null || !body.test(line)) return;
+                }
+            } catch (IOException e) {
+                throw new NativeError("Error reading stdin.");
+            }
+        });
+    }
+
+    private static LoxStream stdinChunks(int size) {
+        return new LoxStream((interpreter, body) -> {
+            try {
+                chunks(Stdin.READER, size, body, () -> Stdin.beforeRead(interpreter));
+            } catch (IOException e) {
+                throw new NativeError("Error reading stdin.");
+            }
+        });
+    }
+
+    // Pushes strings of size characters, the last one shorter if the input
+    // runs out. beforeRead runs before each chunk is read.
+    private static void chunks(Reader reader, int size, Predicate<Object> body, Runnable beforeRead)
+            throws IOException {
+        char[] buffer = new char[size];
+        for (;;) {
+            beforeRead.run();
+            // read() may return fewer characters than asked for.
+            int filled = 0;
+            int count = 0;
+            while (filled < size && (count = reader.read(buffer, filled, size - filled)) != -1) {
+                filled += count;
+            }
+            if (filled > 0 && !body.test(new String(buffer, 0, filled))) return;
+            if (count == -1) return;
+        }
+    }
+
+    // A file opened by File.writer() or File.appender(). Writes are buffered
+    // until the buffer fills up, flush() or close(). Until it's closed, the
+    // writer is attached to the print output, so it's also flushed when
+    // that is, at the latest when the script ends.
+    private static final class Writer implements LoxObject {
+        private final String path;
+        private final FileChannel channel;
+        private final LoxOutput out;
+        private final LoxOutput printOut;
+        private boolean closed = false;
+
+        private Writer(String path, FileChannel channel, LoxOutput printOut) {
+            this.path = path;
+            this.channel = channel;
+            this.out = LoxOutput.of(channel);
+            this.printOut = printOut;
+            printOut.attach(out);
+        }
+
+        static Writer open(Interpreter interpreter, String path, OpenOption mode) {
+            try {
+                FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, mode);
+                return new Writer(path, channel, interpreter.out);
+            } catch (IOException | InvalidPathException e) {
+                throw new NativeError("Error opening file: " + path);
+            }
+        }
+
+        // Runs an action on the output, reporting what it throws as an error
+        // of this file.
+        private Object write(Runnable action) {
+            if (closed) throw new NativeError("Writer is closed.");
+            try {
+                action.run();
+            } catch (UncheckedIOException e) {
+                throw new NativeError("Error writing file: " + path);
+            }
+            return null;
+        }
+
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "write":
+                    return new LoxNative(1, (interpreter, arguments) -> write(() -> out.print(arguments.get(0))));
+                case "writeLine":
+                    return new LoxNative(1, (interpreter, arguments) -> write(() -> out.println(arguments.get(0))));
+                case "flush":
+                    return new LoxNative(0, (interpreter, arguments) -> write(out::flush));
+                case "close":
+                    return new LoxNative(0, (interpreter, arguments) -> {
+                        if (closed) return null;
+                        write(out::flush);
+                        closed = true;
+                        printOut.detach(out);
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            throw new NativeError("Error writing file: " + path);
+                        }
+                        return null;
+                    });
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<writer " + path + ">";
+        }
+    }
+}
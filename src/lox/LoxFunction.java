@@ -5,20 +5,27 @@ import lox.tool_gen.Stmt;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
+    final Stmt.Function declaration;
+    private final Object[] upvalues;
+    final Globals globals;
+    private final LoxInstance receiver;
     private final boolean isInitializer;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(Stmt.Function declaration, Object[] upvalues, Globals globals, boolean isInitializer) {
+        this(declaration, upvalues, globals, null, isInitializer);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Object[] upvalues, Globals globals, LoxInstance receiver,
+                        boolean isInitializer) {
         this.isInitializer = isInitializer;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.globals = globals;
+        this.receiver = receiver;
         this.declaration = declaration;
     }
 
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, upvalues, globals, instance, isInitializer);
     }
 
     @Override
@@ -34,19 +41,51 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
-        }
+        if (declaration.isAsync) return interpreter.loop.async(this, arguments);
+        if (declaration.isGenerator) return new LoxGenerator(this, arguments);
+        return invoke(interpreter, arguments);
+    }
+
+    // Runs the body on the calling thread.
+    Object invoke(Interpreter interpreter, List<Object> arguments) {
+        Environment environment = frame(arguments);
 
+        // Functions imported from another module run against its globals.
+        Globals previous = interpreter.globals;
+        interpreter.globals = globals;
         try {
             interpreter.executeBlock(declaration.body, environment);
         } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
+            if (isInitializer) return receiver;
             return returnValue.value;
+        } finally {
+            interpreter.globals = previous;
         }
 
-        if (isInitializer) return closure.getAt(0, "this");
+        if (isInitializer) return receiver;
         return null;
     }
+
+    // The frame of a call, holding the arguments.
+    Environment frame(List<Object> arguments) {
+        Environment environment = new Environment(declaration.frameSize, upvalues);
+
+        // Methods keep 'this' in the first slot, before the parameters.
+        int first = 0;
+        if (receiver != null) {
+            environment.define(0, receiver);
+            first = 1;
+        }
+
+        for (int i = 0; i < declaration.params.size(); i++) {
+            environment.define(first + i, arguments.get(i));
+        }
+
+        if (declaration.boxedParams != null) {
+            for (int slot : declaration.boxedParams) {
+                environment.define(slot, new Cell(environment.slots[slot]));
+            }
+        }
+        return environment;
+    }
 }
@@ -0,0 +1,167 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+// The result of calling a function containing 'yield'. A for-in loop over a
+// fresh generator runs its body on the loop's own thread, and every yield
+// runs the loop body in place, so values are never buffered and a pipeline
+// of generators runs in constant memory.
+//
+// Pulling values one at a time with next() runs the body on the puller's
+// thread until the next yield, keeping where it stopped in a Resumable, so
+// a generator waiting to be pulled, or abandoned halfway, holds no thread.
+class LoxGenerator implements LoxObject, LoxIterable, LoxIterable.Cursor {
+    // Receives the values of the generator running in an interpreter.
+    interface Sink {
+        void send(Object value);
+    }
+
+    private final LoxFunction function;
+    private final List<Object> arguments;
+    private boolean started = false;
+    private boolean running = false;
+    private boolean done = false;
+
+    // Where the body stopped when it's pulled with next().
+    private Resumable body = null;
+    private boolean ready = false;
+    private Object value = null;
+
+    LoxGenerator(LoxFunction function, List<Object> arguments) {
+        this.function = function;
+        this.arguments = arguments;
+    }
+
+    // Thrown through the generator's body to leave it when the loop body
+    // breaks out of the loop or returns from the enclosing function.
+    private static final class Exit extends RuntimeException {
+        Return returned = null;
+
+        Exit() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Runs the loop body with the state of the loop, not of the generator.
+    private final class Push implements Sink {
+        final Interpreter interpreter;
+        final Predicate<Object> body;
+        final Environment environment;
+        final Globals globals;
+        final Sink enclosing;
+        final Exit exit = new Exit();
+
+        Push(Interpreter interpreter, Predicate<Object> body) {
+            this.interpreter = interpreter;
+            this.body = body;
+            this.environment = interpreter.environment;
+            this.globals = interpreter.globals;
+            this.enclosing = interpreter.sink;
+        }
+
+        @Override
+        public void send(Object value) {
+            Environment generatorEnvironment = interpreter.environment;
+            Globals generatorGlobals = interpreter.globals;
+            interpreter.environment = environment;
+            interpreter.globals = globals;
+            interpreter.sink = enclosing;
+            try {
+                if (!body.test(value)) throw exit;
+            } catch (Return returned) {
+                exit.returned = returned;
+                throw exit;
+            } finally {
+                interpreter.environment = generatorEnvironment;
+                interpreter.globals = generatorGlobals;
+                interpreter.sink = this;
+            }
+        }
+    }
+
+    @Override
+    public void iterate(Interpreter interpreter, Predicate<Object> body) {
+        if (started) {
+            while (hasNext(interpreter)) {
+                if (!body.test(next(interpreter))) return;
+            }
+            return;
+        }
+
+        started = true;
+        running = true;
+        Push push = new Push(interpreter, body);
+        interpreter.sink = push;
+        try {
+            function.invoke(interpreter, arguments);
+        } catch (Exit exit) {
+            if (exit != push.exit) throw exit;
+            if (exit.returned != null) throw exit.returned;
+        } finally {
+            interpreter.sink = push.enclosing;
+            running = false;
+            done = true;
+        }
+    }
+
+    @Override
+    public Cursor cursor() {
+        return this;
+    }
+
+    @Override
+    public boolean hasNext(Interpreter interpreter) {
+        if (running) throw new NativeError("Generator is already running.");
+        if (!ready && !done) resume(interpreter);
+        return ready;
+    }
+
+    @Override
+    public Object next(Interpreter interpreter) {
+        if (!hasNext(interpreter)) throw new NativeError("Generator is exhausted.");
+        Object next = value;
+        ready = false;
+        value = null;
+        return next;
+    }
+
+    // Runs the body on the calling thread until it yields or ends.
+    private void resume(Interpreter interpreter) {
+        if (!started) {
+            started = true;
+            body = new Resumable(function, arguments);
+        }
+        running = true;
+        try {
+            ready = body.resume(interpreter);
+            if (ready) value = body.value;
+            body.value = null;
+        } finally {
+            running = false;
+            if (!ready) {
+                done = true;
+                body = null;
+            }
+        }
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "next":
+                return new LoxNative(0, (interpreter, arguments) -> next(interpreter));
+            case "hasNext":
+                return new LoxNative(0, (interpreter, arguments) -> hasNext(interpreter));
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<generator>";
+    }
+}
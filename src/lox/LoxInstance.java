@@ -2,19 +2,28 @@ package lox;
 
 import lox.token.Token;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 
 class LoxInstance {
     private final LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // Null once the instance is frozen, when frozen holds the fields instead.
+    private Map<String, Object> fields = new HashMap<>();
+    private FrozenFields frozen = null;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
+        FrozenFields frozen = this.frozen;
+        if (frozen != null) {
+            int index = frozen.indexOf(name.lexeme);
+            if (index >= 0) return frozen.values[index];
+        } else if (fields.containsKey(name.lexeme)) {
             return fields.get(name.lexeme);
         }
 
@@ -24,12 +33,104 @@ class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
+    // The fields by name. They don't change once the instance is frozen.
+    Map<String, Object> fields() {
+        FrozenFields frozen = this.frozen;
+        return frozen != null ? frozen.toMap() : fields;
+    }
+
     void set(Token name, Object value) {
+        if (frozen != null) {
+            throw new RuntimeError(name, "Cannot modify a field of a frozen object.");
+        }
         fields.put(name.lexeme, value);
     }
 
+    // Freezes the value and every instance, list, map, number array and
+    // byte buffer reachable from it. Frozen values can be read from any number of tasks
+    // without locking.
+    static void freeze(Object value) {
+        Deque<Object> pending = new ArrayDeque<>();
+        if (value != null) pending.push(value);
+
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (next instanceof LoxList list) {
+                list.freeze(pending);
+                continue;
+            }
+            if (next instanceof LoxMap map) {
+                map.freeze(pending);
+                continue;
+            }
+            if (next instanceof LoxNumArray array) {
+                array.freeze();
+                continue;
+            }
+            if (next instanceof LoxBytes bytes) {
+                bytes.freeze();
+                continue;
+            }
+            if (next instanceof LoxVector vector) {
+                vector.freeze(pending);
+                continue;
+            }
+            if (next instanceof LoxPersistentMap map) {
+                map.freeze(pending);
+                continue;
+            }
+            if (!(next instanceof LoxInstance instance) || instance.frozen != null) continue;
+
+            instance.frozen = new FrozenFields(instance.fields);
+            for (Object field : instance.fields.values()) {
+                if (field != null) pending.push(field);
+            }
+            instance.fields = null;
+        }
+    }
+
     @Override
     public String toString() {
         return klass.name + " instance";
     }
+
+    // An open addressing table built once, when the instance is frozen. It
+    // is read without the entry objects of a HashMap, and its final fields
+    // make it safe to read from a thread that sees it without other
+    // synchronization.
+    private static final class FrozenFields {
+        private final String[] names;
+        private final Object[] values;
+
+        FrozenFields(Map<String, Object> fields) {
+            int capacity = Integer.highestOneBit(Math.max(fields.size(), 1)) << 2;
+            names = new String[capacity];
+            values = new Object[capacity];
+
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                int index = field.getKey().hashCode() & (capacity - 1);
+                while (names[index] != null) index = (index + 1) & (capacity - 1);
+                names[index] = field.getKey();
+                values[index] = field.getValue();
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> fields = new HashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] != null) fields.put(names[i], values[i]);
+            }
+            return Collections.unmodifiableMap(fields);
+        }
+
+        int indexOf(String name) {
+            int mask = names.length - 1;
+            int index = name.hashCode() & mask;
+            while (names[index] != null) {
+                if (names[index].equals(name)) return index;
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+    }
 }
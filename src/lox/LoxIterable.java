@@ -0,0 +1,25 @@
+package lox;
+
+import java.util.function.Predicate;
+
+// A value a for-in loop can go over. The values are pushed into the loop
+// body, which returns false when the loop ends early.
+interface LoxIterable {
+    void iterate(Interpreter interpreter, Predicate<Object> body);
+
+    // The values pulled one at a time instead, for a loop that has to stop
+    // between them, like one in a generator pulled with next(). Iterables
+    // that can only push their values hand them over from a thread.
+    default Cursor cursor() {
+        return new PushCursor(this);
+    }
+
+    interface Cursor {
+        boolean hasNext(Interpreter interpreter);
+
+        Object next(Interpreter interpreter);
+
+        // Called when the loop ends before the values do.
+        default void close() {}
+    }
+}
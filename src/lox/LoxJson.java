@@ -0,0 +1,651 @@
+package lox;
+
+import lox.token.Token;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// The native json module. parse() turns objects into maps, arrays into lists,
+// numbers into numbers, and true, false and null into themselves and nil.
+// stringify() goes the other way, also writing vectors, number arrays and
+// other iterable values as arrays, and persistent maps and instances (their
+// fields) as objects.
+//
+// reader(path) reads a file a buffer at a time, for documents too big to
+// parse whole. next() steps through it one event at a time, readValue()
+// parses the value starting at the next event, and elements() streams the
+// values of an array, so an array of records can be gone through one record
+// at a time.
+class LoxJson {
+    static Globals globals() {
+        Globals globals = new Globals();
+        globals.define("parse", new LoxNative(1, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof String text)) throw new NativeError("Can only parse a string.");
+            Parser parser = new Parser(text);
+            Object value = parser.readValue();
+            parser.end();
+            return value;
+        }));
+        globals.define("stringify", new LoxNative(1, (interpreter, arguments) -> {
+            StringBuilder json = new StringBuilder();
+            write(interpreter, json, arguments.get(0));
+            return json.toString();
+        }));
+        globals.define("reader", new LoxNative(1, (interpreter, arguments) -> {
+            if (!(arguments.get(0) instanceof String path)) throw new NativeError("Path must be a string.");
+            try {
+                Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(path)), StandardCharsets.UTF_8);
+                return new PullReader(path, new Parser(reader));
+            } catch (IOException | InvalidPathException e) {
+                throw new NativeError("Error reading file: " + path);
+            }
+        }));
+        return globals;
+    }
+
+    private enum Event {
+        START_OBJECT("startObject"), END_OBJECT("endObject"), START_ARRAY("startArray"), END_ARRAY("endArray"),
+        KEY("key"), VALUE("value");
+
+        // What next() returns to Lox.
+        final String name;
+
+        Event(String name) {
+            this.name = name;
+        }
+    }
+
+    // A pull parser over a buffer of chars, refilled from a reader when it
+    // runs out. Strings without escapes are made straight from the buffer
+    // and numbers are read from it digit by digit, so the only objects made
+    // are the values themselves. Object keys are looked up in a small cache
+    // first, so the keys of a long array of records are made once.
+    private static final class Parser {
+        private static final int BUFFER_SIZE = 1 << 16;
+        // What the parser expects next in the innermost array or object.
+        private static final int VALUE = 0, VALUE_OR_END = 1, KEY_OR_END = 2, COMMA_OR_END = 3, DONE = 4;
+        private static final double[] POWERS_OF_TEN = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+        };
+
+        // Null when the whole input is in the buffer.
+        private final Reader reader;
+        private char[] buffer;
+        private int position = 0;
+        private int limit;
+        // Chars read before the start of the buffer, for error messages.
+        private long consumed = 0;
+
+        // Whether each open container is an object.
+        private boolean[] objects = new boolean[16];
+        private int depth = 0;
+        private int state = VALUE;
+
+        // The key or value of the last event.
+        private Object value;
+        private final StringBuilder scratch = new StringBuilder();
+        private final String[] keys = new String[512];
+
+        Parser(String text) {
+            reader = null;
+            buffer = text.toCharArray();
+            limit = buffer.length;
+        }
+
+        Parser(Reader reader) {
+            this.reader = reader;
+            buffer = new char[BUFFER_SIZE];
+            limit = 0;
+        }
+
+        private NativeError error(String message) {
+            return new NativeError("Invalid JSON at offset " + (consumed + position) + ": " + message);
+        }
+
+        // Makes sure the buffer has a char at position, returning false at
+        // the end of the input.
+        private boolean fill() {
+            if (position < limit) return true;
+            if (reader == null) return false;
+            try {
+                consumed += limit;
+                position = 0;
+                limit = 0;
+                int count;
+                while ((count = reader.read(buffer)) == 0) {
+                    // Keep reading.
+                }
+                if (count < 0) return false;
+                limit = count;
+                return true;
+            } catch (IOException e) {
+                throw new NativeError("Error reading JSON.");
+            }
+        }
+
+        // The next char that isn't whitespace, without consuming it, or -1
+        // at the end of the input.
+        private int peek() {
+            while (fill()) {
+                char c = buffer[position];
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+                position++;
+            }
+            return -1;
+        }
+
+        private void expect(char expected) {
+            if (peek() != expected) throw error("expected '" + expected + "'.");
+            position++;
+        }
+
+        // Whether the innermost array or object, or the top level, has
+        // another value.
+        boolean hasNext() {
+            int c = peek();
+            return switch (state) {
+                case VALUE -> c != -1;
+                case VALUE_OR_END -> c != ']';
+                case KEY_OR_END -> c != '}';
+                case COMMA_OR_END -> c == ',';
+                default -> false;
+            };
+        }
+
+        // The next event, or null after the top-level value.
+        Event next() {
+            int c = peek();
+            switch (state) {
+                case DONE:
+                    return null;
+                case VALUE_OR_END:
+                    if (c == ']') return close(false);
+                    return value(c);
+                case KEY_OR_END:
+                    if (c == '}') return close(true);
+                    return key(c);
+                case COMMA_OR_END:
+                    if (c == (objects[depth - 1] ? '}' : ']')) return close(objects[depth - 1]);
+                    if (c != ',') throw error(objects[depth - 1] ? "expected ',' or '}'." : "expected ',' or ']'.");
+                    position++;
+                    return objects[depth - 1] ? key(peek()) : value(peek());
+                default:
+                    return value(c);
+            }
+        }
+
+        private Event close(boolean object) {
+            position++;
+            depth--;
+            afterValue();
+            return object ? Event.END_OBJECT : Event.END_ARRAY;
+        }
+
+        private void afterValue() {
+            state = depth == 0 ? DONE : COMMA_OR_END;
+        }
+
+        private void open(boolean object) {
+            position++;
+            if (depth == objects.length) objects = Arrays.copyOf(objects, depth * 2);
+            objects[depth++] = object;
+            state = object ? KEY_OR_END : VALUE_OR_END;
+        }
+
+        private Event key(int c) {
+            if (c != '"') throw error("expected a string key.");
+            position++;
+            value = string(true);
+            expect(':');
+            state = VALUE;
+            return Event.KEY;
+        }
+
+        private Event value(int c) {
+            switch (c) {
+                case '{':
+                    open(true);
+                    return Event.START_OBJECT;
+                case '[':
+                    open(false);
+                    return Event.START_ARRAY;
+                case '"':
+                    position++;
+                    value = string(false);
+                    break;
+                case 't':
+                    literal("true");
+                    value = true;
+                    break;
+                case 'f':
+                    literal("false");
+                    value = false;
+                    break;
+                case 'n':
+                    literal("null");
+                    value = null;
+                    break;
+                case -1:
+                    throw error("unexpected end of input.");
+                default:
+                    if (c != '-' && (c < '0' || c > '9')) throw error("unexpected character '" + (char)c + "'.");
+                    value = number();
+            }
+            afterValue();
+            return Event.VALUE;
+        }
+
+        private void literal(String word) {
+            for (int i = 0; i < word.length(); i++) {
+                if (!fill() || buffer[position] != word.charAt(i)) throw error("expected '" + word + "'.");
+                position++;
+            }
+        }
+
+        // Reads a string whose opening quote has been consumed.
+        private String string(boolean key) {
+            int start = position;
+            for (int i = start; i < limit; i++) {
+                char c = buffer[i];
+                if (c == '"') {
+                    position = i + 1;
+                    return key ? cachedKey(start, i - start) : new String(buffer, start, i - start);
+                }
+                if (c == '\\' || c < 0x20) break;
+            }
+            return escapedString();
+        }
+
+        // The cached string with the chars, or a new one that is cached.
+        private String cachedKey(int start, int length) {
+            int hash = 0;
+            for (int i = start; i < start + length; i++) {
+                hash = 31 * hash + buffer[i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & (keys.length - 1);
+            String cached = keys[slot];
+            if (cached != null && cached.length() == length) {
+                int i = 0;
+                while (i < length && cached.charAt(i) == buffer[start + i]) i++;
+                if (i == length) return cached;
+            }
+            return keys[slot] = new String(buffer, start, length);
+        }
+
+        // The slow path of string(), for escapes and strings that go past
+        // the end of the buffer.
+        private String escapedString() {
+            scratch.setLength(0);
+            for (;;) {
+                if (!fill()) throw error("unterminated string.");
+                char c = buffer[position++];
+                if (c == '"') return scratch.toString();
+                if (c < 0x20) throw error("control character in string.");
+                if (c != '\\') {
+                    scratch.append(c);
+                    continue;
+                }
+
+                if (!fill()) throw error("unterminated string.");
+                char escape = buffer[position++];
+                switch (escape) {
+                    case '"', '\\', '/' -> scratch.append(escape);
+                    case 'b' -> scratch.append('\b');
+                    case 'f' -> scratch.append('\f');
+                    case 'n' -> scratch.append('\n');
+                    case 'r' -> scratch.append('\r');
+                    case 't' -> scratch.append('\t');
+                    case 'u' -> {
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            if (!fill()) throw error("unterminated string.");
+                            int digit = Character.digit(buffer[position++], 16);
+                            if (digit < 0) throw error("invalid unicode escape.");
+                            code = code * 16 + digit;
+                        }
+                        scratch.append((char)code);
+                    }
+                    default -> throw error("invalid escape '\\" + escape + "'.");
+                }
+            }
+        }
+
+        // Reads a number, keeping up to 19 digits in a long. Numbers with at
+        // most 15 significant digits and a small exponent are exact as a
+        // long and a power of ten, so one multiplication or division rounds
+        // them correctly. The rest go through Double.parseDouble().
+        private double number() {
+            scratch.setLength(0);
+            boolean negative = take('-');
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+
+            if (!fill() || buffer[position] < '0' || buffer[position] > '9') throw error("expected a digit.");
+            if (buffer[position] == '0') {
+                scratch.append('0');
+                position++;
+            } else {
+                while (fill() && buffer[position] >= '0' && buffer[position] <= '9') {
+                    char c = buffer[position++];
+                    scratch.append(c);
+                    if (digits < 19) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        digits++;
+                    } else {
+                        exponent++;
+                    }
+                }
+            }
+
+            if (take('.')) {
+                scratch.append('.');
+                if (!fill() || buffer[position] < '0' || buffer[position] > '9') throw error("expected a digit.");
+                while (fill() && buffer[position] >= '0' && buffer[position] <= '9') {
+                    char c = buffer[position++];
+                    scratch.append(c);
+                    if (mantissa == 0 && c == '0') {
+                        // Leading zeros aren't significant.
+                        exponent--;
+                    } else if (digits < 19) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        digits++;
+                        exponent--;
+                    }
+                }
+            }
+
+            if (fill() && (buffer[position] == 'e' || buffer[position] == 'E')) {
+                scratch.append(buffer[position++]);
+                boolean negativeExponent = take('-');
+                if (negativeExponent) {
+                    scratch.append('-');
+                } else if (take('+')) {
+                    scratch.append('+');
+                }
+                if (!fill() || buffer[position] < '0' || buffer[position] > '9') throw error("expected a digit.");
+                int written = 0;
+                while (fill() && buffer[position] >= '0' && buffer[position] <= '9') {
+                    char c = buffer[position++];
+                    scratch.append(c);
+                    if (written < 100000) written = written * 10 + (c - '0');
+                }
+                exponent += negativeExponent ? -written : written;
+            }
+
+            double result;
+            if (digits <= 15 && exponent >= -22 && exponent <= 22) {
+                result = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            } else {
+                result = Double.parseDouble(scratch.toString());
+            }
+            return negative ? -result : result;
+        }
+
+        private boolean take(char c) {
+            if (fill() && buffer[position] == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        // Parses the value starting at the next event. Containers are kept
+        // on a stack instead of the Java stack, so deep nesting is fine.
+        Object readValue() {
+            List<Object> containers = new ArrayList<>();
+            List<String> keys = new ArrayList<>();
+            for (;;) {
+                Event event = next();
+                Object result;
+                switch (event == null ? Event.END_ARRAY : event) {
+                    case START_OBJECT -> {
+                        containers.add(new LoxMap());
+                        keys.add(null);
+                        continue;
+                    }
+                    case START_ARRAY -> {
+                        containers.add(new LoxList());
+                        keys.add(null);
+                        continue;
+                    }
+                    case KEY -> {
+                        keys.set(keys.size() - 1, (String)value);
+                        continue;
+                    }
+                    case VALUE -> result = value;
+                    default -> {
+                        if (containers.isEmpty()) throw error("expected a value.");
+                        keys.remove(keys.size() - 1);
+                        result = containers.remove(containers.size() - 1);
+                    }
+                }
+
+                if (containers.isEmpty()) return result;
+                Object container = containers.get(containers.size() - 1);
+                if (container instanceof LoxList list) {
+                    list.add(result);
+                } else {
+                    // A new map, so it can't be frozen.
+                    ((LoxMap)container).put(null, keys.get(keys.size() - 1), result);
+                }
+            }
+        }
+
+        // Checks that nothing but whitespace follows the top-level value.
+        void end() {
+            if (peek() != -1) throw error("unexpected data after the value.");
+        }
+
+        void close() {
+            state = DONE;
+            if (reader == null) return;
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // Nothing more is read from it.
+            }
+        }
+    }
+
+    // The object json.reader() returns.
+    private static final class PullReader implements LoxObject {
+        private final String path;
+        private final Parser parser;
+
+        PullReader(String path, Parser parser) {
+            this.path = path;
+            this.parser = parser;
+        }
+
+        private Object next() {
+            Event event = parser.next();
+            if (event == null) {
+                parser.end();
+                parser.close();
+                return null;
+            }
+            return event.name;
+        }
+
+        // Streams the values of the array starting at the next event.
+        private LoxStream elements() {
+            if (parser.next() != Event.START_ARRAY) throw parser.error("expected an array.");
+            return new LoxStream((interpreter, body) -> {
+                while (parser.hasNext()) {
+                    if (!body.test(parser.readValue())) return;
+                }
+                parser.next();
+            });
+        }
+
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "next":
+                    return new LoxNative(0, (interpreter, arguments) -> next());
+                case "value":
+                    return new LoxNative(0, (interpreter, arguments) -> parser.value);
+                case "hasNext":
+                    return new LoxNative(0, (interpreter, arguments) -> parser.hasNext());
+                case "readValue":
+                    return new LoxNative(0, (interpreter, arguments) -> parser.readValue());
+                case "elements":
+                    return new LoxNative(0, (interpreter, arguments) -> elements());
+                case "close":
+                    return new LoxNative(0, (interpreter, arguments) -> {
+                        parser.close();
+                        return null;
+                    });
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<json reader " + path + ">";
+        }
+    }
+
+    // An array or object being written: its elements, or its keys and
+    // values one after the other, and how many have been written.
+    private static final class Frame {
+        final Object container;
+        final boolean object;
+        final Object[] items;
+        int next = 0;
+
+        Frame(Object container, boolean object, Object[] items) {
+            this.container = container;
+            this.object = object;
+            this.items = items;
+        }
+    }
+
+    // Appends the value as JSON. Arrays and objects are kept on a stack of
+    // frames instead of the Java stack, so anything parse() returns, however
+    // deeply nested, can be written back. The containers on the stack are
+    // also in writing, so a value that contains itself is an error.
+    private static void write(Interpreter interpreter, StringBuilder json, Object value) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        Map<Object, Boolean> writing = new IdentityHashMap<>();
+        writeValue(interpreter, json, value, stack, writing);
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.next == frame.items.length) {
+                json.append(frame.object ? '}' : ']');
+                writing.remove(frame.container);
+                stack.pop();
+                continue;
+            }
+
+            if (frame.next > 0) json.append(',');
+            if (frame.object) {
+                writeKey(json, frame.items[frame.next++]);
+                json.append(':');
+            }
+            writeValue(interpreter, json, frame.items[frame.next++], stack, writing);
+        }
+    }
+
+    // Appends a value that isn't an array or object, or opens one and pushes
+    // its frame.
+    private static void writeValue(Interpreter interpreter, StringBuilder json, Object value,
+                                   Deque<Frame> stack, Map<Object, Boolean> writing) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Boolean) {
+            json.append(value);
+        } else if (value instanceof Double number) {
+            if (number.isNaN() || number.isInfinite()) throw new NativeError("Can't convert " + number + " to JSON.");
+            LoxOutput.appendNumber(json, number);
+        } else if (value instanceof String string) {
+            quote(json, string);
+        } else if (value instanceof LoxMap || value instanceof LoxPersistentMap || value instanceof LoxInstance ||
+                value instanceof LoxIterable) {
+            if (writing.put(value, true) != null) throw new NativeError("Can't convert a cyclic value to JSON.");
+            Frame frame;
+            if (value instanceof LoxMap map) {
+                frame = new Frame(value, true, entries(interpreter, map, map::get));
+            } else if (value instanceof LoxPersistentMap map) {
+                frame = new Frame(value, true, entries(interpreter, map, map::get));
+            } else if (value instanceof LoxInstance instance) {
+                Map<String, Object> fields = instance.fields();
+                frame = new Frame(value, true, entries(interpreter, (ignored, body) -> {
+                    for (String field : fields.keySet()) {
+                        if (!body.test(field)) return;
+                    }
+                }, fields::get));
+            } else {
+                List<Object> elements = new ArrayList<>();
+                ((LoxIterable)value).iterate(interpreter, elements::add);
+                frame = new Frame(value, false, elements.toArray());
+            }
+            json.append(frame.object ? '{' : '[');
+            stack.push(frame);
+        } else {
+            throw new NativeError("Can't convert " + Interpreter.stringify(value) + " to JSON.");
+        }
+    }
+
+    // The keys and their values, one after the other.
+    private static Object[] entries(Interpreter interpreter, LoxIterable keys, Function<Object, Object> values) {
+        List<Object> entries = new ArrayList<>();
+        keys.iterate(interpreter, key -> {
+            entries.add(key);
+            entries.add(values.apply(key));
+            return true;
+        });
+        return entries.toArray();
+    }
+
+    private static void writeKey(StringBuilder json, Object key) {
+        if (key instanceof String string) {
+            quote(json, string);
+        } else if (key instanceof Double number) {
+            json.append('"');
+            LoxOutput.appendNumber(json, number);
+            json.append('"');
+        } else {
+            throw new NativeError("JSON object keys must be strings or numbers.");
+        }
+    }
+
+    private static void quote(StringBuilder json, String string) {
+        json.append('"');
+        int start = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) continue;
+
+            json.append(string, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\b' -> json.append("\\b");
+                case '\f' -> json.append("\\f");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> json.append(String.format("\\u%04x", (int)c));
+            }
+        }
+        json.append(string, start, string.length()).append('"');
+    }
+}
@@ -0,0 +1,175 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// A growable list. The storage follows what the list holds: an empty list
+// shares a single empty array, a list of numbers keeps them unboxed in a
+// double[], and the first element of another type moves everything to an
+// Object[] for good.
+class LoxList implements LoxObject, LoxIterable {
+    private static final double[] NO_NUMBERS = new double[0];
+    // The containers being turned into strings on this thread.
+    private static final ThreadLocal<Set<Object>> PRINTING =
+            ThreadLocal.withInitial(() -> Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private double[] numbers = NO_NUMBERS;
+    // Null while the list only holds numbers.
+    private Object[] objects = null;
+    private int size = 0;
+    private boolean frozen = false;
+
+    int size() {
+        return size;
+    }
+
+    // The index a Lox value refers to.
+    int index(Token bracket, Object index) {
+        if (!(index instanceof Double number) || number % 1 != 0) {
+            throw new RuntimeError(bracket, "List index must be an integer.");
+        }
+        if (number < 0 || number >= size) {
+            throw new RuntimeError(bracket, "List index out of range.");
+        }
+        return (int)(double)number;
+    }
+
+    Object get(int index) {
+        if (objects != null) return objects[index];
+        return numbers[index];
+    }
+
+    void set(Token bracket, int index, Object value) {
+        if (frozen) throw new RuntimeError(bracket, "Cannot modify a frozen list.");
+
+        if (objects != null) {
+            objects[index] = value;
+        } else if (value instanceof Double number) {
+            numbers[index] = number;
+        } else {
+            generalize();
+            objects[index] = value;
+        }
+    }
+
+    void add(Object value) {
+        if (objects == null) {
+            if (value instanceof Double number) {
+                if (size == numbers.length) numbers = Arrays.copyOf(numbers, grow(size));
+                numbers[size++] = number;
+                return;
+            }
+            generalize();
+        }
+
+        if (size == objects.length) objects = Arrays.copyOf(objects, grow(size));
+        objects[size++] = value;
+    }
+
+    private Object removeLast() {
+        Object last = get(--size);
+        if (objects != null) objects[size] = null;
+        return last;
+    }
+
+    private static int grow(int size) {
+        return Math.max(8, size + (size >> 1));
+    }
+
+    private void generalize() {
+        objects = new Object[Math.max(numbers.length, 8)];
+        for (int i = 0; i < size; i++) {
+            objects[i] = numbers[i];
+        }
+        numbers = NO_NUMBERS;
+    }
+
+    // Freezes the list and queues its elements to be frozen too.
+    void freeze(Deque<Object> pending) {
+        if (frozen) return;
+        frozen = true;
+
+        if (objects == null) return;
+        for (int i = 0; i < size; i++) {
+            if (objects[i] != null) pending.push(objects[i]);
+        }
+    }
+
+    @Override
+    public void iterate(Interpreter interpreter, Predicate<Object> body) {
+        for (int i = 0; i < size; i++) {
+            if (!body.test(get(i))) return;
+        }
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new Cursor() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext(Interpreter interpreter) {
+                return index < size;
+            }
+
+            @Override
+            public Object next(Interpreter interpreter) {
+                return get(index++);
+            }
+        };
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)size;
+            case "push":
+                return new LoxNative(1, (interpreter, arguments) -> {
+                    if (frozen) throw new NativeError("Cannot modify a frozen list.");
+                    add(arguments.get(0));
+                    return null;
+                });
+            case "pop":
+                return new LoxNative(0, (interpreter, arguments) -> {
+                    if (frozen) throw new NativeError("Cannot modify a frozen list.");
+                    if (size == 0) throw new NativeError("Can't pop from an empty list.");
+                    return removeLast();
+                });
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    // The text of a container, or the placeholder if the container is met
+    // again while its own text is being made, so one that contains itself
+    // doesn't recurse forever.
+    static String text(Object container, String placeholder, Supplier<String> text) {
+        Set<Object> printing = PRINTING.get();
+        if (!printing.add(container)) return placeholder;
+        try {
+            return text.get();
+        } finally {
+            printing.remove(container);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text(this, "[...]", () -> {
+            StringBuilder builder = new StringBuilder("[");
+            for (int i = 0; i < size; i++) {
+                if (i > 0) builder.append(", ");
+                builder.append(Interpreter.stringify(get(i)));
+            }
+            return builder.append("]").toString();
+        });
+    }
+}
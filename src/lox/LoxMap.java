@@ -0,0 +1,241 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.Deque;
+import java.util.function.Predicate;
+
+// A hash map that keeps its entries in insertion order. Keys and values are
+// appended next to each other to one array, and an open addressing table of
+// ints (probed linearly, at most half full) holds the position of every
+// entry, with some bits of its hash in the bits the position doesn't need. A
+// lookup reads one table slot and, unless those bits differ, one entry, and
+// never allocates. Keys are compared by what they are: strings by identity
+// and then by contents, numbers by their bits, anything else with equals().
+//
+// Removing an entry leaves it in place, marked as removed, until the next
+// time the entries are full.
+class LoxMap implements LoxObject, LoxIterable {
+    private static final Object REMOVED = new Object();
+
+    // The low bits of a slot hold the entry + 1, or 0 if the slot is empty,
+    // the others the tag of the key.
+    private int[] table;
+    private int shift;
+    // Key of entry i at 2 * i, value at 2 * i + 1.
+    private Object[] entries;
+    // Entries in use, including the removed ones.
+    private int count = 0;
+    private int size = 0;
+    private boolean frozen = false;
+
+    LoxMap() {
+        allocate(8);
+    }
+
+    // A Lox value as a key.
+    static Object key(Token token, Object key) {
+        if (key == null) throw new RuntimeError(token, "Map key can't be nil.");
+        return key;
+    }
+
+    // The table index is taken from the high bits of the hash code times the
+    // golden ratio (Fibonacci hashing), which spreads out the similar hash
+    // codes of similar strings and of whole numbers.
+    private int index(int hashCode) {
+        return (hashCode * 0x9E3779B9) >>> shift;
+    }
+
+    // The slot keeps low bits of the hash code, which the index mostly
+    // doesn't depend on.
+    private static int tag(int hashCode, int mask) {
+        return (hashCode << 16) & ~mask;
+    }
+
+    private static boolean same(Object key, Object other) {
+        if (key instanceof String string) return other instanceof String && string.equals(other);
+        if (key instanceof Double number) {
+            return other instanceof Double otherNumber &&
+                    Double.doubleToLongBits(number) == Double.doubleToLongBits(otherNumber);
+        }
+        return key.equals(other);
+    }
+
+    // The entry holding the key, or -1 - the index of the empty slot it would
+    // go in.
+    private int find(Object key, int hashCode) {
+        int[] table = this.table;
+        Object[] entries = this.entries;
+        int mask = table.length - 1;
+        int tag = tag(hashCode, mask);
+        int index = index(hashCode);
+        while (true) {
+            int slot = table[index];
+            if (slot == 0) return -1 - index;
+
+            if ((slot & ~mask) == tag) {
+                int entry = (slot & mask) - 1;
+                Object other = entries[2 * entry];
+                if (other == key || same(key, other)) return entry;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    Object get(Object key) {
+        int entry = find(key, key.hashCode());
+        return entry >= 0 ? entries[2 * entry + 1] : null;
+    }
+
+    boolean has(Object key) {
+        return find(key, key.hashCode()) >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void put(Token token, Object key, Object value) {
+        if (frozen) throw new RuntimeError(token, "Cannot modify a frozen map.");
+
+        int hashCode = key.hashCode();
+        int entry = find(key, hashCode);
+        if (entry >= 0) {
+            entries[2 * entry + 1] = value;
+            return;
+        }
+
+        int index = -1 - entry;
+        if (2 * count == entries.length) {
+            // Only grow when at least half of the entries are still in use.
+            rebuild(2 * size >= count ? count * 2 : count);
+            index = -1 - find(key, hashCode);
+        }
+
+        insert(index, hashCode, key, value);
+        size++;
+    }
+
+    private void insert(int index, int hashCode, Object key, Object value) {
+        table[index] = tag(hashCode, table.length - 1) | (count + 1);
+        entries[2 * count] = key;
+        entries[2 * count + 1] = value;
+        count++;
+    }
+
+    private Object remove(Object key) {
+        int entry = find(key, key.hashCode());
+        if (entry < 0) return null;
+
+        Object value = entries[2 * entry + 1];
+        entries[2 * entry] = REMOVED;
+        entries[2 * entry + 1] = null;
+        size--;
+        return value;
+    }
+
+    private void allocate(int capacity) {
+        table = new int[capacity * 2];
+        shift = Integer.numberOfLeadingZeros(table.length) + 1;
+        entries = new Object[capacity * 2];
+    }
+
+    private void rebuild(int capacity) {
+        Object[] oldEntries = entries;
+        int oldCount = count;
+
+        allocate(capacity);
+        count = 0;
+        for (int i = 0; i < oldCount; i++) {
+            Object key = oldEntries[2 * i];
+            if (key == REMOVED) continue;
+
+            int hashCode = key.hashCode();
+            insert(-1 - find(key, hashCode), hashCode, key, oldEntries[2 * i + 1]);
+        }
+    }
+
+    // The keys (offset 0) or the values (offset 1) in a list.
+    private LoxList list(int offset) {
+        LoxList list = new LoxList();
+        for (int i = 0; i < count; i++) {
+            if (entries[2 * i] != REMOVED) list.add(entries[2 * i + offset]);
+        }
+        return list;
+    }
+
+    // Freezes the map and queues its keys and values to be frozen too.
+    void freeze(Deque<Object> pending) {
+        if (frozen) return;
+        frozen = true;
+
+        for (int i = 0; i < count; i++) {
+            if (entries[2 * i] == REMOVED) continue;
+            pending.push(entries[2 * i]);
+            if (entries[2 * i + 1] != null) pending.push(entries[2 * i + 1]);
+        }
+    }
+
+    // Goes over the keys in insertion order.
+    @Override
+    public void iterate(Interpreter interpreter, Predicate<Object> body) {
+        for (int i = 0; i < count; i++) {
+            Object key = entries[2 * i];
+            if (key != REMOVED && !body.test(key)) return;
+        }
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new Cursor() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext(Interpreter interpreter) {
+                while (index < count && entries[2 * index] == REMOVED) index++;
+                return index < count;
+            }
+
+            @Override
+            public Object next(Interpreter interpreter) {
+                hasNext(interpreter);
+                return entries[2 * index++];
+            }
+        };
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "size":
+                return (double)size;
+            case "has":
+                return new LoxNative(1, (interpreter, arguments) -> arguments.get(0) != null && has(arguments.get(0)));
+            case "remove":
+                return new LoxNative(1, (interpreter, arguments) -> {
+                    if (frozen) throw new NativeError("Cannot modify a frozen map.");
+                    return arguments.get(0) != null ? remove(arguments.get(0)) : null;
+                });
+            case "keys":
+                return new LoxNative(0, (interpreter, arguments) -> list(0));
+            case "values":
+                return new LoxNative(0, (interpreter, arguments) -> list(1));
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return LoxList.text(this, "{...}", () -> {
+            StringBuilder builder = new StringBuilder("{");
+            for (int i = 0; i < count; i++) {
+                if (entries[2 * i] == REMOVED) continue;
+                if (builder.length() > 1) builder.append(", ");
+                builder.append(Interpreter.stringify(entries[2 * i])).append(": ")
+                        .append(Interpreter.stringify(entries[2 * i + 1]));
+            }
+            return builder.append("}").toString();
+        });
+    }
+}
@@ -0,0 +1,118 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+// The native math module, imported with 'import "math";'. Its members are
+// the globals of a module without statements, so it's imported and used
+// like a file module.
+class LoxMath {
+    static Globals globals() {
+        Globals globals = new Globals();
+        globals.define("PI", Math.PI);
+        globals.define("E", Math.E);
+
+        unary(globals, "sqrt", Math::sqrt);
+        unary(globals, "exp", Math::exp);
+        unary(globals, "log", Math::log);
+        unary(globals, "log10", Math::log10);
+        unary(globals, "floor", Math::floor);
+        unary(globals, "ceil", Math::ceil);
+        unary(globals, "round", LoxMath::round);
+        unary(globals, "abs", Math::abs);
+        unary(globals, "sin", Math::sin);
+        unary(globals, "cos", Math::cos);
+        unary(globals, "tan", Math::tan);
+        unary(globals, "asin", Math::asin);
+        unary(globals, "acos", Math::acos);
+        unary(globals, "atan", Math::atan);
+
+        binary(globals, "pow", Math::pow);
+        binary(globals, "min", Math::min);
+        binary(globals, "max", Math::max);
+        binary(globals, "atan2", Math::atan2);
+        binary(globals, "hypot", Math::hypot);
+
+        globals.define("random", new LoxNative(0, (interpreter, arguments) ->
+                ThreadLocalRandom.current().nextDouble()));
+        globals.define("Random", new LoxNative(1, (interpreter, arguments) ->
+                new Random((long)number(arguments.get(0)))));
+        return globals;
+    }
+
+    // Halves round up. From 2^52 on every double is an integer already, and
+    // adding 0.5 to one below it can round the sum up, so Math.round() is
+    // used where it's exact and anything else, NaN and infinities included,
+    // is returned as it is.
+    private static double round(double value) {
+        return Math.abs(value) < 0x1p52 ? (double)Math.round(value) : value;
+    }
+
+    private static void unary(Globals globals, String name, DoubleUnaryOperator function) {
+        globals.define(name, new LoxNative(1, (interpreter, arguments) ->
+                function.applyAsDouble(number(arguments.get(0)))));
+    }
+
+    private static void binary(Globals globals, String name, DoubleBinaryOperator function) {
+        globals.define(name, new LoxNative(2, (interpreter, arguments) ->
+                function.applyAsDouble(number(arguments.get(0)), number(arguments.get(1)))));
+    }
+
+    private static double number(Object value) {
+        if (!(value instanceof Double number)) throw new NativeError("Argument must be a number.");
+        return number;
+    }
+
+    // A seeded generator (SplitMix64), so a run can be repeated. Each one
+    // keeps its own state and must stay in a single task.
+    private static final class Random implements LoxObject {
+        private long state;
+
+        Random(long seed) {
+            state = seed;
+        }
+
+        private long nextLong() {
+            long z = (state += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        // Uniform in [0, 1), from the top 53 bits.
+        private double nextDouble() {
+            return (nextLong() >>> 11) * 0x1.0p-53;
+        }
+
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "next":
+                    return new LoxNative(0, (interpreter, arguments) -> nextDouble());
+                case "int":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        double bound = number(arguments.get(0));
+                        if (bound < 1 || bound % 1 != 0) throw new NativeError("Bound must be a positive integer.");
+                        return Math.floor(nextDouble() * bound);
+                    });
+                case "gaussian":
+                    return new LoxNative(0, (interpreter, arguments) -> {
+                        // Box-Muller, using one of the two values.
+                        double u = 1 - nextDouble();
+                        double v = nextDouble();
+                        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+                    });
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<random>";
+        }
+    }
+}
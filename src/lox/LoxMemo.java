@@ -0,0 +1,147 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// What memoize(fn, maxEntries) returns: a function that calls fn once for
+// each new list of arguments and answers repeated calls from a cache. Numbers,
+// strings, booleans and nil are matched by value, anything else by identity,
+// so a changed list or instance isn't mistaken for the one that was cached.
+// The least recently used result is dropped once there are maxEntries.
+//
+// Reassigning a recursive function's global to its memoized version makes
+// the recursive calls go through the cache too:
+//
+//     fib = memoize(fib, 1000);
+//
+// The lock is only held to read and update the cache, never while fn runs,
+// so tasks can share a memoized function. Two of them may compute the same
+// result at once; the first to finish is kept.
+class LoxMemo implements LoxCallable, LoxObject {
+    // Stands for nil as a key.
+    private static final Object NIL = new Object();
+
+    private final LoxCallable function;
+    private final LinkedHashMap<Object, Object> cache;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    LoxMemo(LoxCallable function, int maxEntries) {
+        this.function = function;
+        // Iterates from the least recently used entry.
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                if (size() <= maxEntries) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    private static boolean byValue(Object value) {
+        return value instanceof Double || value instanceof String || value instanceof Boolean;
+    }
+
+    // A single value argument is its own key, so most calls of a function
+    // of one number don't allocate one.
+    private static Object key(List<Object> arguments) {
+        if (arguments.size() == 1) {
+            Object argument = arguments.get(0);
+            if (argument == null) return NIL;
+            if (byValue(argument)) return argument;
+        }
+        return new Key(arguments.toArray());
+    }
+
+    @Override
+    public int arity() {
+        return function.arity();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object key = key(arguments);
+        synchronized (this) {
+            Object cached = cache.get(key);
+            if (cached != null) {
+                hits++;
+                return cached == NIL ? null : cached;
+            }
+            misses++;
+        }
+
+        Object result = function.call(interpreter, arguments);
+        synchronized (this) {
+            cache.putIfAbsent(key, result == null ? NIL : result);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Object get(Token name) {
+        switch (name.lexeme) {
+            case "hits":
+                return (double)hits;
+            case "misses":
+                return (double)misses;
+            case "evictions":
+                return (double)evictions;
+            case "size":
+                return (double)cache.size();
+            case "clear":
+                return new LoxNative(0, (interpreter, arguments) -> {
+                    synchronized (this) {
+                        cache.clear();
+                    }
+                    return null;
+                });
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<memoized " + function + ">";
+    }
+
+    // The arguments of a call with more than one argument, or one that is
+    // matched by identity.
+    private static final class Key {
+        private final Object[] values;
+        private final int hashCode;
+
+        Key(Object[] values) {
+            this.values = values;
+            int hash = 1;
+            for (Object value : values) {
+                int valueHash = value == null ? 0 : byValue(value) ? value.hashCode() : System.identityHashCode(value);
+                hash = 31 * hash + valueHash;
+            }
+            this.hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key key) || key.hashCode != hashCode || key.values.length != values.length) {
+                return false;
+            }
+            for (int i = 0; i < values.length; i++) {
+                Object a = values[i];
+                Object b = key.values[i];
+                if (a != b && (a == null || !byValue(a) || !a.equals(b))) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
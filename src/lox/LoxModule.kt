@@ -1,54 +1,44 @@
 package lox
 
 import lox.token.Token
-import java.nio.charset.Charset
-import java.nio.file.Files
-import java.nio.file.Paths
-import kotlin.system.exitProcess
 
 
+// Thrown when an imported module can't be read or doesn't compile. The
+// errors have already been reported, the exit code is for the command line.
+class ModuleLoadError(@JvmField val exitCode: Int, message: String) : RuntimeException(message)
+
+// Modules report their errors and print to the same places as the code that
+// imports them, but run in their own interpreter with their own globals.
 class LoxModule(
-    private val name: Token,
+    name: Token,
+    importer: Interpreter,
 ) {
-    private val info = ModuleInfo(name.literal.toString())
-    @JvmField val interpreter: Interpreter = Interpreter(info)
+    private val info = ModuleInfo(name.literal.toString(), importer.moduleInfo.reporter)
+    private val compiled = importer.modules.load(info)
+    @JvmField val interpreter: Interpreter =
+        Interpreter(info, compiled.globals.copy(), importer.out, importer.modules, importer.loop)
 
     fun init() {
-        val bytes: ByteArray?
-        val path = name.literal.toString() + ".lox"
-        try {
-            bytes = Files.readAllBytes(Paths.get(path))
-        } catch (e: Exception) {
-            System.err.println("Error reading file: ${path}")
-            exitProcess(71)
-        }
-
-        val scanner = Scanner(String(bytes!!, Charset.defaultCharset()), info)
-        val tokens = scanner.scanTokens()
-        val parser = Parser(tokens, info)
-        val statements = parser.parse()
-
-        // Stop if there was a syntax error.
-        if (info.hadError) {
-            exitProcess(65)
-        }
-
-        val resolver = Resolver(interpreter, info)
-        resolver.resolve(statements)
-
-        // Stop if there was a resolution error.
-        if (info.hadError) {
-            exitProcess(65)
-        }
-
-        interpreter.interpret(statements)
+        interpreter.load(compiled.statements)
+    }
+
+    // A member resolved to its global slot. Get and Set nodes cache it, so
+    // later accesses skip the lookup. It's keyed on the slot table rather
+    // than the module: every module loaded from the same compiled code hits
+    // it, and the shared AST doesn't keep the modules of earlier runs alive.
+    class Export(@JvmField val layout: Any, @JvmField val slot: Int)
+
+    fun export(cached: Any?, name: Token): Export {
+        val globals = interpreter.globals
+        if (cached is Export && cached.layout === globals.layout()) return cached
+        return Export(globals.layout(), globals.slotOf(name))
     }
 
-    fun get(name: Token): Any? {
-        return interpreter.environment[name]
+    fun get(export: Export, name: Token): Any? {
+        return interpreter.globals[export.slot, name]
     }
 
-    fun set(name: Token, value: Any?) {
-        interpreter.environment.assign(name, value)
+    fun set(export: Export, name: Token, value: Any?) {
+        interpreter.globals.assign(export.slot, name, value)
     }
 }
@@ -0,0 +1,323 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+// A fixed length array of numbers, kept unboxed in a double[], with bulk
+// operations that run as one Java loop over the whole array instead of one
+// interpreted expression per element. The kernels are plain counted loops
+// over double[], which C2 compiles to SIMD instructions (except for the
+// reductions, which keep several partial results to not wait on each add).
+//
+// Operations producing an array return a new one, except axpy(), which
+// updates the array in place. Comparisons produce masks, arrays of 1 where
+// the comparison holds and 0 elsewhere, so mask.sum() counts the matches and
+// xs.mul(mask) keeps them.
+class LoxNumArray implements LoxObject, LoxIterable {
+    // The NumArray global, which makes arrays.
+    static final LoxObject FACTORIES = new LoxObject() {
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "zeros":
+                    return new LoxNative(1, (interpreter, arguments) -> new LoxNumArray(new double[length(arguments.get(0))]));
+                case "range":
+                    return new LoxNative(2, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof Double start) || !(arguments.get(1) instanceof Double end)) {
+                            throw new NativeError("Range bounds must be numbers.");
+                        }
+                        return range(start, end);
+                    });
+                case "of":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof LoxIterable source)) {
+                            throw new NativeError("Can only make a NumArray of iterable values.");
+                        }
+                        return of(interpreter, source);
+                    });
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<native NumArray>";
+        }
+    };
+
+    private final double[] values;
+    private boolean frozen = false;
+
+    private LoxNumArray(double[] values) {
+        this.values = values;
+    }
+
+    private static int length(Object value) {
+        if (!(value instanceof Double length) || length < 0 || length % 1 != 0 || length > Integer.MAX_VALUE - 8) {
+            throw new NativeError("NumArray length must be a non-negative integer.");
+        }
+        return (int)(double)length;
+    }
+
+    private static LoxNumArray range(double start, double end) {
+        double[] values = new double[length(Math.max(0, Math.ceil(end - start)))];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = start + i;
+        }
+        return new LoxNumArray(values);
+    }
+
+    private static LoxNumArray of(Interpreter interpreter, LoxIterable source) {
+        double[][] values = {new double[8]};
+        int[] size = {0};
+        source.iterate(interpreter, value -> {
+            if (size[0] == values[0].length) values[0] = Arrays.copyOf(values[0], size[0] * 2);
+            values[0][size[0]++] = number(value);
+            return true;
+        });
+        return new LoxNumArray(Arrays.copyOf(values[0], size[0]));
+    }
+
+    private static double number(Object value) {
+        if (!(value instanceof Double number)) throw new NativeError("NumArray elements must be numbers.");
+        return number;
+    }
+
+    private static double factor(Object value) {
+        if (!(value instanceof Double factor)) throw new NativeError("Factor must be a number.");
+        return factor;
+    }
+
+    // The index a Lox value refers to.
+    int index(Token bracket, Object index) {
+        if (!(index instanceof Double number) || number % 1 != 0) {
+            throw new RuntimeError(bracket, "NumArray index must be an integer.");
+        }
+        if (number < 0 || number >= values.length) {
+            throw new RuntimeError(bracket, "NumArray index out of range.");
+        }
+        return (int)(double)number;
+    }
+
+    double get(int index) {
+        return values[index];
+    }
+
+    void set(Token bracket, int index, Object value) {
+        if (frozen) throw new RuntimeError(bracket, "Cannot modify a frozen NumArray.");
+        if (!(value instanceof Double number)) throw new RuntimeError(bracket, "NumArray elements must be numbers.");
+        values[index] = number;
+    }
+
+    void freeze() {
+        frozen = true;
+    }
+
+    // The other operand of an element-wise operation: an array of the same
+    // length, or a number standing for an array full of it.
+    private double[] operand(Object value) {
+        if (value instanceof LoxNumArray other) {
+            if (other.values.length != values.length) throw new NativeError("NumArray lengths must match.");
+            return other.values;
+        }
+        if (value instanceof Double number) {
+            double[] filled = new double[values.length];
+            Arrays.fill(filled, number);
+            return filled;
+        }
+        throw new NativeError("Operand must be a number or a NumArray.");
+    }
+
+    private static double sum(double[] a) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static double min(double[] a) {
+        double min = Double.POSITIVE_INFINITY;
+        for (double value : a) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static double max(double[] a) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : a) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    private static double[] scale(double[] a, double k) {
+        double[] result = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i] = a[i] * k;
+        }
+        return result;
+    }
+
+    // y = a * x + y
+    private static void axpy(double a, double[] x, double[] y) {
+        for (int i = 0; i < y.length; i++) {
+            y[i] += a * x[i];
+        }
+    }
+
+    private static double[] add(double[] a, double[] b) {
+        double[] result = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i] = a[i] + b[i];
+        }
+        return result;
+    }
+
+    private static double[] sub(double[] a, double[] b) {
+        double[] result = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i] = a[i] - b[i];
+        }
+        return result;
+    }
+
+    private static double[] mul(double[] a, double[] b) {
+        double[] result = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            result[i] = a[i] * b[i];
+        }
+        return result;
+    }
+
+    private static double[] less(double[] a, double[] b) {
+        double[] mask = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            mask[i] = a[i] < b[i] ? 1 : 0;
+        }
+        return mask;
+    }
+
+    private static double[] greater(double[] a, double[] b) {
+        double[] mask = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            mask[i] = a[i] > b[i] ? 1 : 0;
+        }
+        return mask;
+    }
+
+    private static double[] equal(double[] a, double[] b) {
+        double[] mask = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            mask[i] = a[i] == b[i] ? 1 : 0;
+        }
+        return mask;
+    }
+
+    @Override
+    public void iterate(Interpreter interpreter, Predicate<Object> body) {
+        for (double value : values) {
+            if (!body.test(value)) return;
+        }
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new Cursor() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext(Interpreter interpreter) {
+                return index < values.length;
+            }
+
+            @Override
+            public Object next(Interpreter interpreter) {
+                return values[index++];
+            }
+        };
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)values.length;
+            case "sum":
+                return new LoxNative(0, (interpreter, arguments) -> sum(values));
+            case "min":
+                return new LoxNative(0, (interpreter, arguments) -> min(values));
+            case "max":
+                return new LoxNative(0, (interpreter, arguments) -> max(values));
+            case "dot":
+                return new LoxNative(1, (interpreter, arguments) -> dot(values, operand(arguments.get(0))));
+            case "scale":
+                return new LoxNative(1, (interpreter, arguments) ->
+                        new LoxNumArray(scale(values, factor(arguments.get(0)))));
+            case "axpy":
+                return new LoxNative(2, (interpreter, arguments) -> {
+                    if (frozen) throw new NativeError("Cannot modify a frozen NumArray.");
+                    axpy(factor(arguments.get(0)), operand(arguments.get(1)), values);
+                    return null;
+                });
+            case "add":
+                return new LoxNative(1, (interpreter, arguments) -> new LoxNumArray(add(values, operand(arguments.get(0)))));
+            case "sub":
+                return new LoxNative(1, (interpreter, arguments) -> new LoxNumArray(sub(values, operand(arguments.get(0)))));
+            case "mul":
+                return new LoxNative(1, (interpreter, arguments) -> new LoxNumArray(mul(values, operand(arguments.get(0)))));
+            case "lt":
+                return new LoxNative(1, (interpreter, arguments) -> new LoxNumArray(less(values, operand(arguments.get(0)))));
+            case "gt":
+                return new LoxNative(1, (interpreter, arguments) -> new LoxNumArray(greater(values, operand(arguments.get(0)))));
+            case "eq":
+                return new LoxNative(1, (interpreter, arguments) -> new LoxNumArray(equal(values, operand(arguments.get(0)))));
+            case "toList":
+                return new LoxNative(0, (interpreter, arguments) -> {
+                    LoxList list = new LoxList();
+                    for (double value : values) {
+                        list.add(value);
+                    }
+                    return list;
+                });
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("NumArray[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(Interpreter.stringify(values[i]));
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -0,0 +1,8 @@
+package lox;
+
+import lox.token.Token;
+
+// A native value with properties, usually methods bound to it.
+interface LoxObject {
+    Object get(Token name);
+}
@@ -0,0 +1,176 @@
+package lox;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Where print writes to: stdout, a channel (such as a file) or, for
+// embedders, a Writer. Printed lines collect in a buffer that is written out
+// when it fills up, when the script calls flush(), and when the interpreter
+// finishes running or reports an error, so a script printing millions of
+// lines makes a few large writes instead of one per line.
+//
+// Numbers are formatted straight into the buffer. Tasks may print at the same
+// time, so the methods are synchronized; a line is never split between them.
+abstract class LoxOutput {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 256);
+    // Outputs flushed along with this one, like the files a script has open,
+    // so what they hold is written when the script ends.
+    private final List<LoxOutput> attached = new ArrayList<>();
+
+    // Writes through System.out, so print keeps its place among other
+    // output to it, like the prompt. Text is encoded in the platform's
+    // charset, as a PrintWriter on System.out would.
+    static LoxOutput stdout() {
+        return new ChannelOutput(Channels.newChannel(System.out), System.out, Charset.defaultCharset());
+    }
+
+    static LoxOutput of(WritableByteChannel channel) {
+        return new ChannelOutput(channel, null, StandardCharsets.UTF_8);
+    }
+
+    static LoxOutput of(Writer writer) {
+        return new WriterOutput(writer);
+    }
+
+    // Writes the characters to the target.
+    abstract void write(CharSequence chars) throws IOException;
+
+    abstract void flushTarget() throws IOException;
+
+    // Appends the value as print shows it.
+    synchronized void print(Object value) {
+        append(value);
+        if (buffer.length() >= BUFFER_SIZE) drain();
+    }
+
+    // Appends the value as print shows it, followed by a newline.
+    synchronized void println(Object value) {
+        append(value);
+        buffer.append('\n');
+        if (buffer.length() >= BUFFER_SIZE) drain();
+    }
+
+    private void append(Object value) {
+        if (value instanceof Double number) {
+            appendNumber(buffer, number);
+        } else {
+            buffer.append(Interpreter.stringify(value));
+        }
+    }
+
+    synchronized void flush() {
+        drain();
+        try {
+            flushTarget();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (LoxOutput output : attached) {
+            output.flush();
+        }
+    }
+
+    synchronized void attach(LoxOutput output) {
+        attached.add(output);
+    }
+
+    synchronized void detach(LoxOutput output) {
+        attached.remove(output);
+    }
+
+    private void drain() {
+        if (buffer.length() == 0) return;
+        try {
+            write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.setLength(0);
+        }
+    }
+
+    // Appends the number the way stringify() shows it: Double.toString()
+    // without a trailing ".0". Integers below 10^7, which toString() writes
+    // without an exponent, are appended as longs.
+    static void appendNumber(StringBuilder builder, double number) {
+        if (number == (long)number && Math.abs(number) < 1e7) {
+            if (number == 0 && 1 / number < 0) builder.append('-');
+            builder.append((long)number);
+        } else {
+            builder.append(number);
+        }
+    }
+
+    // Encodes the characters into a reused byte buffer. Characters the
+    // charset can't encode are written as '?'.
+    private static final class ChannelOutput extends LoxOutput {
+        private final WritableByteChannel channel;
+        // What the channel writes to, if it buffers.
+        private final Flushable target;
+        private final CharsetEncoder encoder;
+        private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+        ChannelOutput(WritableByteChannel channel, Flushable target, Charset charset) {
+            this.channel = channel;
+            this.target = target;
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        void write(CharSequence chars) throws IOException {
+            CharBuffer input = CharBuffer.wrap(chars);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(input, bytes, true);
+                writeBytes();
+            } while (result.isOverflow());
+        }
+
+        private void writeBytes() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) channel.write(bytes);
+            bytes.clear();
+        }
+
+        @Override
+        void flushTarget() throws IOException {
+            if (target != null) target.flush();
+        }
+    }
+
+    private static final class WriterOutput extends LoxOutput {
+        private final Writer writer;
+
+        WriterOutput(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        void write(CharSequence chars) throws IOException {
+            writer.append(chars);
+        }
+
+        @Override
+        void flushTarget() throws IOException {
+            writer.flush();
+        }
+    }
+}
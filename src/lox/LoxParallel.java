@@ -0,0 +1,173 @@
+package lox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// parallelMap, parallelReduce and parallelForEach. The list is split in
+// halves down to a few chunks per core, which the caller and the threads of
+// the common ForkJoinPool work through, stealing the halves left over by busy
+// threads. Each thread calls the function through an interpreter of its own,
+// forked from the caller's for the operation, so the calls never share an
+// environment. What the function closes over and the globals are shared like
+// they are between tasks (see LoxTask), and the list must not be modified
+// until the operation returns.
+class LoxParallel {
+    // What to do with a chunk of the list, and how to put the results of two
+    // neighbouring chunks together.
+    private interface Operation {
+        Object chunk(Interpreter interpreter, int from, int to);
+
+        Object combine(Interpreter interpreter, Object left, Object right);
+    }
+
+    private final Interpreter caller;
+    private final LoxList list;
+    private final LoxCallable function;
+    private final int chunkSize;
+    private final Map<Thread, Interpreter> interpreters = new ConcurrentHashMap<>();
+    // Set by the first chunk that fails, so the others stop early.
+    private volatile boolean failed = false;
+
+    private LoxParallel(Interpreter caller, LoxList list, LoxCallable function) {
+        this.caller = caller;
+        this.list = list;
+        this.function = function;
+        this.chunkSize = Math.max(1, list.size() / (4 * (ForkJoinPool.getCommonPoolParallelism() + 1)));
+    }
+
+    static LoxList map(Interpreter interpreter, Object list, Object function) {
+        return new LoxParallel(interpreter, list(list), function(function, 1)).map();
+    }
+
+    static Object reduce(Interpreter interpreter, Object list, Object identity, Object function) {
+        return new LoxParallel(interpreter, list(list), function(function, 2)).reduce(identity);
+    }
+
+    static void forEach(Interpreter interpreter, Object list, Object function) {
+        new LoxParallel(interpreter, list(list), function(function, 1)).forEach();
+    }
+
+    private static LoxList list(Object value) {
+        if (!(value instanceof LoxList list)) throw new NativeError("Can only run over lists in parallel.");
+        return list;
+    }
+
+    private static LoxCallable function(Object value, int arity) {
+        if (!(value instanceof LoxCallable function) || function.arity() != arity) {
+            throw new NativeError("Expected a function with " + arity + (arity == 1 ? " parameter." : " parameters."));
+        }
+        return function;
+    }
+
+    private LoxList map() {
+        Object[] results = new Object[list.size()];
+        run(new Operation() {
+            @Override
+            public Object chunk(Interpreter interpreter, int from, int to) {
+                for (int i = from; i < to && !failed; i++) {
+                    results[i] = function.call(interpreter, List.of(list.get(i)));
+                }
+                return null;
+            }
+
+            @Override
+            public Object combine(Interpreter interpreter, Object left, Object right) {
+                return null;
+            }
+        });
+
+        LoxList mapped = new LoxList();
+        for (Object result : results) {
+            mapped.add(result);
+        }
+        return mapped;
+    }
+
+    // Every chunk starts from the identity, so the function has to be
+    // associative and the identity has to leave values unchanged.
+    private Object reduce(Object identity) {
+        if (list.size() == 0) return identity;
+
+        return run(new Operation() {
+            @Override
+            public Object chunk(Interpreter interpreter, int from, int to) {
+                Object result = identity;
+                for (int i = from; i < to && !failed; i++) {
+                    result = function.call(interpreter, List.of(result, list.get(i)));
+                }
+                return result;
+            }
+
+            @Override
+            public Object combine(Interpreter interpreter, Object left, Object right) {
+                return function.call(interpreter, List.of(left, right));
+            }
+        });
+    }
+
+    private void forEach() {
+        run(new Operation() {
+            @Override
+            public Object chunk(Interpreter interpreter, int from, int to) {
+                for (int i = from; i < to && !failed; i++) {
+                    function.call(interpreter, List.of(list.get(i)));
+                }
+                return null;
+            }
+
+            @Override
+            public Object combine(Interpreter interpreter, Object left, Object right) {
+                return null;
+            }
+        });
+    }
+
+    // Runs the operation over the whole list, with the caller's thread taking
+    // part until it's done. Each interpreter has an event loop of its own for
+    // the timers and async calls the function starts, which the caller runs
+    // once every chunk is done, one after the other.
+    private Object run(Operation operation) {
+        try {
+            return new Chunk(operation, 0, list.size()).invoke();
+        } finally {
+            for (Interpreter interpreter : interpreters.values()) {
+                interpreter.loop.run();
+            }
+        }
+    }
+
+    private Interpreter interpreter() {
+        return interpreters.computeIfAbsent(Thread.currentThread(), thread -> caller.fork(null));
+    }
+
+    private class Chunk extends RecursiveTask<Object> {
+        private final Operation operation;
+        private final int from;
+        private final int to;
+
+        Chunk(Operation operation, int from, int to) {
+            this.operation = operation;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Object compute() {
+            try {
+                if (to - from <= chunkSize) return operation.chunk(interpreter(), from, to);
+
+                int middle = (from + to) >>> 1;
+                Chunk left = new Chunk(operation, from, middle);
+                left.fork();
+                Object right = new Chunk(operation, middle, to).compute();
+                return operation.combine(interpreter(), left.join(), right);
+            } catch (RuntimeException | Error e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+// A persistent hash map, a hash array mapped trie: every level of the tree
+// takes the next 5 bits of a key's hash to pick one of up to 32 children, and
+// a node only stores the children it has, with a bitmap saying which ones
+// they are. set() and remove() copy the path from the root to the key, at
+// most log32(n) nodes, and share everything else with the map they started
+// from, which is left as it was. Keys with the same hash share a collision
+// node at the bottom.
+//
+// transient() returns a builder, as for vectors (see LoxVector). Keys are
+// iterated in no particular order.
+class LoxPersistentMap implements LoxObject, LoxIterable {
+    private static final Object NOT_FOUND = new Object();
+    static final LoxPersistentMap EMPTY = new LoxPersistentMap(0, null);
+
+    // The PersistentMap global, which makes maps.
+    static final LoxObject FACTORIES = new LoxObject() {
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "empty":
+                    return EMPTY;
+                case "of":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof LoxMap map)) {
+                            throw new NativeError("Can only make a persistent map of a map.");
+                        }
+                        Transient builder = new Transient(EMPTY);
+                        map.iterate(interpreter, key -> {
+                            builder.set(key, map.get(key));
+                            return true;
+                        });
+                        return builder.persistent();
+                    });
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<native PersistentMap>";
+        }
+    };
+
+    private final int count;
+    // Null when the map is empty.
+    private final Node root;
+
+    private LoxPersistentMap(int count, Node root) {
+        this.count = count;
+        this.root = root;
+    }
+
+    // Spreads the hash code over all the bits, since the trie takes the low
+    // ones first and the hash codes of whole numbers only differ in the high
+    // ones.
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private abstract static class Node {
+        abstract Object find(int shift, int hash, Object key);
+
+        // The node with the key set to the value, this node if nothing
+        // changed. Sets added[0] if the key is new.
+        abstract Node set(Object edit, int shift, int hash, Object key, Object value, boolean[] added);
+
+        // The node without the key, this node if it wasn't there, or null if
+        // nothing is left.
+        abstract Node remove(Object edit, int shift, int hash, Object key);
+
+        abstract boolean each(BiPredicate<Object, Object> body);
+    }
+
+    // Pairs of a key and its value, or of null and the child node holding the
+    // keys that share the pair's 5 bits of hash.
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+        final Object edit;
+        int bitmap;
+        Object[] array;
+
+        BitmapNode(Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & 31);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private BitmapNode editable(Object edit) {
+            if (edit != null && this.edit == edit) return this;
+            return new BitmapNode(edit, bitmap, array.clone());
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) return NOT_FOUND;
+
+            int index = index(bit);
+            Object other = array[2 * index];
+            Object value = array[2 * index + 1];
+            if (other == null) return ((Node)value).find(shift + 5, hash, key);
+            return key.equals(other) ? value : NOT_FOUND;
+        }
+
+        @Override
+        Node set(Object edit, int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) != 0) {
+                Object other = array[2 * index];
+                Object otherValue = array[2 * index + 1];
+                if (other == null) {
+                    Node child = ((Node)otherValue).set(edit, shift + 5, hash, key, value, added);
+                    if (child == otherValue) return this;
+                    return with(edit, 2 * index + 1, child);
+                }
+                if (key.equals(other)) {
+                    if (value == otherValue) return this;
+                    return with(edit, 2 * index + 1, value);
+                }
+
+                // Another key with the same bits here: both move a level down.
+                added[0] = true;
+                Node child = pair(edit, shift + 5, other, otherValue, hash, key, value);
+                BitmapNode result = editable(edit);
+                result.array[2 * index] = null;
+                result.array[2 * index + 1] = child;
+                return result;
+            }
+
+            added[0] = true;
+            int size = Integer.bitCount(bitmap);
+            if (edit != null && this.edit == edit && 2 * size < array.length) {
+                System.arraycopy(array, 2 * index, array, 2 * (index + 1), 2 * (size - index));
+                array[2 * index] = key;
+                array[2 * index + 1] = value;
+                bitmap |= bit;
+                return this;
+            }
+
+            // Builders leave room to add more keys in place.
+            Object[] newArray = new Object[2 * (edit != null ? size + 4 : size + 1)];
+            System.arraycopy(array, 0, newArray, 0, 2 * index);
+            newArray[2 * index] = key;
+            newArray[2 * index + 1] = value;
+            System.arraycopy(array, 2 * index, newArray, 2 * (index + 1), 2 * (size - index));
+            return new BitmapNode(edit, bitmap | bit, newArray);
+        }
+
+        private BitmapNode with(Object edit, int i, Object value) {
+            BitmapNode result = editable(edit);
+            result.array[i] = value;
+            return result;
+        }
+
+        @Override
+        Node remove(Object edit, int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) return this;
+
+            int index = index(bit);
+            Object other = array[2 * index];
+            Object value = array[2 * index + 1];
+            if (other == null) {
+                Node child = ((Node)value).remove(edit, shift + 5, hash, key);
+                if (child == value) return this;
+                if (child != null) return with(edit, 2 * index + 1, child);
+            } else if (!key.equals(other)) {
+                return this;
+            }
+
+            // The pair goes.
+            if (bitmap == bit) return null;
+            int size = Integer.bitCount(bitmap);
+            Object[] newArray = new Object[2 * (size - 1)];
+            System.arraycopy(array, 0, newArray, 0, 2 * index);
+            System.arraycopy(array, 2 * (index + 1), newArray, 2 * index, 2 * (size - index - 1));
+            return new BitmapNode(edit, bitmap ^ bit, newArray);
+        }
+
+        @Override
+        boolean each(BiPredicate<Object, Object> body) {
+            int size = Integer.bitCount(bitmap);
+            for (int i = 0; i < size; i++) {
+                Object key = array[2 * i];
+                Object value = array[2 * i + 1];
+                if (key == null) {
+                    if (!((Node)value).each(body)) return false;
+                } else if (!body.test(key, value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Keys whose hashes are all the same, in pairs with their values.
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            return i >= 0 ? array[i + 1] : NOT_FOUND;
+        }
+
+        @Override
+        Node set(Object edit, int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // Put this node a level down, where the hashes differ.
+                BitmapNode parent = new BitmapNode(edit, BitmapNode.bit(this.hash, shift), new Object[]{null, this});
+                return parent.set(edit, shift, hash, key, value, added);
+            }
+
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value) return this;
+                Object[] newArray = array.clone();
+                newArray[i + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+
+            added[0] = true;
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        Node remove(Object edit, int shift, int hash, Object key) {
+            int i = indexOf(key);
+            if (i < 0) return this;
+            if (array.length == 2) return null;
+
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        boolean each(BiPredicate<Object, Object> body) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (!body.test(array[i], array[i + 1])) return false;
+            }
+            return true;
+        }
+    }
+
+    // A node holding two keys that collided a level up.
+    private static Node pair(Object edit, int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+        int hash1 = hash(key1);
+        if (hash1 == hash2) return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+
+        boolean[] added = new boolean[1];
+        return BitmapNode.EMPTY
+                .set(edit, shift, hash1, key1, value1, added)
+                .set(edit, shift, hash2, key2, value2, added);
+    }
+
+    Object get(Object key) {
+        if (root == null) return null;
+        Object value = root.find(0, hash(key), key);
+        return value != NOT_FOUND ? value : null;
+    }
+
+    private boolean has(Object key) {
+        return root != null && root.find(0, hash(key), key) != NOT_FOUND;
+    }
+
+    private LoxPersistentMap set(Object key, Object value) {
+        boolean[] added = new boolean[1];
+        Node node = root != null ? root : BitmapNode.EMPTY;
+        Node newRoot = node.set(null, 0, hash(key), key, value, added);
+        if (newRoot == root) return this;
+        return new LoxPersistentMap(added[0] ? count + 1 : count, newRoot);
+    }
+
+    private LoxPersistentMap remove(Object key) {
+        if (root == null) return this;
+        Node newRoot = root.remove(null, 0, hash(key), key);
+        if (newRoot == root) return this;
+        return newRoot != null ? new LoxPersistentMap(count - 1, newRoot) : EMPTY;
+    }
+
+    private static LoxList list(Node root, boolean keys) {
+        LoxList list = new LoxList();
+        if (root != null) {
+            root.each((key, value) -> {
+                list.add(keys ? key : value);
+                return true;
+            });
+        }
+        return list;
+    }
+
+    // Queues the keys and values to be frozen.
+    void freeze(Deque<Object> pending) {
+        if (root == null) return;
+        root.each((key, value) -> {
+            pending.push(key);
+            if (value != null) pending.push(value);
+            return true;
+        });
+    }
+
+    @Override
+    public void iterate(Interpreter interpreter, Predicate<Object> body) {
+        if (root != null) root.each((key, value) -> body.test(key));
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "size":
+                return (double)count;
+            case "get":
+                return new LoxNative(1, (interpreter, arguments) ->
+                        arguments.get(0) != null ? get(arguments.get(0)) : null);
+            case "has":
+                return new LoxNative(1, (interpreter, arguments) -> arguments.get(0) != null && has(arguments.get(0)));
+            case "set":
+                return new LoxNative(2, (interpreter, arguments) -> set(key(arguments.get(0)), arguments.get(1)));
+            case "remove":
+                return new LoxNative(1, (interpreter, arguments) ->
+                        arguments.get(0) != null ? remove(arguments.get(0)) : this);
+            case "keys":
+                return new LoxNative(0, (interpreter, arguments) -> list(root, true));
+            case "values":
+                return new LoxNative(0, (interpreter, arguments) -> list(root, false));
+            case "transient":
+                return new LoxNative(0, (interpreter, arguments) -> new Transient(this));
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    private static Object key(Object key) {
+        if (key == null) throw new NativeError("Map key can't be nil.");
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PersistentMap{");
+        if (root != null) {
+            root.each((key, value) -> {
+                if (builder.length() > "PersistentMap{".length()) builder.append(", ");
+                builder.append(Interpreter.stringify(key)).append(": ").append(Interpreter.stringify(value));
+                return true;
+            });
+        }
+        return builder.append("}").toString();
+    }
+
+    // The builder returned by transient().
+    static final class Transient implements LoxObject {
+        // Null once persistent() was called.
+        private Object edit = new Object();
+        private int count;
+        private Node root;
+
+        Transient(LoxPersistentMap map) {
+            count = map.count;
+            root = map.root;
+        }
+
+        private void checkEditable() {
+            if (edit == null) throw new NativeError("Transient used after persistent().");
+        }
+
+        void set(Object key, Object value) {
+            checkEditable();
+            boolean[] added = new boolean[1];
+            Node node = root != null ? root : BitmapNode.EMPTY;
+            root = node.set(edit, 0, hash(key), key, value, added);
+            if (added[0]) count++;
+        }
+
+        private Object find(Object key) {
+            return root != null ? root.find(0, hash(key), key) : NOT_FOUND;
+        }
+
+        private void remove(Object key) {
+            checkEditable();
+            // Nodes the builder owns change in place, so the root may stay the
+            // same even when the key is gone.
+            if (find(key) == NOT_FOUND) return;
+
+            root = root.remove(edit, 0, hash(key), key);
+            count--;
+        }
+
+        LoxPersistentMap persistent() {
+            checkEditable();
+            edit = null;
+            return root != null ? new LoxPersistentMap(count, root) : EMPTY;
+        }
+
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "size":
+                    return (double)count;
+                case "get":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (arguments.get(0) == null) return null;
+                        Object value = find(arguments.get(0));
+                        return value != NOT_FOUND ? value : null;
+                    });
+                case "has":
+                    return new LoxNative(1, (interpreter, arguments) ->
+                            arguments.get(0) != null && find(arguments.get(0)) != NOT_FOUND);
+                case "set":
+                    return new LoxNative(2, (interpreter, arguments) -> {
+                        set(key(arguments.get(0)), arguments.get(1));
+                        return this;
+                    });
+                case "remove":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (arguments.get(0) != null) remove(arguments.get(0));
+                        return this;
+                    });
+                case "persistent":
+                    return new LoxNative(0, (interpreter, arguments) -> persistent());
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<transient map>";
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The eventual result of an async function, a timer or an I/O operation.
+// Callbacks waiting for it always run on the event loop.
+class LoxPromise implements LoxObject {
+    private final EventLoop loop;
+    private boolean settled = false;
+    private Object value = null;
+    private RuntimeException error = null;
+    private List<Runnable> callbacks = new ArrayList<>();
+    // Whether anything has waited for the promise, so a rejection nobody
+    // sees can be reported.
+    private boolean handled = false;
+
+    LoxPromise(EventLoop loop) {
+        this.loop = loop;
+    }
+
+    void resolve(Object value) {
+        if (value instanceof LoxPromise promise) {
+            promise.onSettle(() -> settle(promise.value, promise.error));
+        } else {
+            settle(value, null);
+        }
+    }
+
+    void reject(RuntimeException error) {
+        settle(null, error);
+    }
+
+    private void settle(Object value, RuntimeException error) {
+        List<Runnable> callbacks;
+        synchronized (this) {
+            if (settled) return;
+            settled = true;
+            this.value = value;
+            this.error = error;
+            callbacks = this.callbacks;
+            this.callbacks = null;
+        }
+
+        if (error != null && callbacks.isEmpty()) loop.rejected(this);
+
+        for (Runnable callback : callbacks) {
+            loop.submit(callback);
+        }
+    }
+
+    synchronized boolean isSettled() {
+        return settled;
+    }
+
+    // The error of a rejected promise that nothing has waited for.
+    synchronized RuntimeException unhandledError() {
+        return handled ? null : error;
+    }
+
+    // Runs the callback on the event loop once the promise is settled.
+    void onSettle(Runnable callback) {
+        synchronized (this) {
+            handled = true;
+            if (!settled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        loop.submit(callback);
+    }
+
+    // The value of a settled promise, or the error it was rejected with.
+    synchronized Object result() {
+        handled = true;
+        if (error != null) throw error;
+        return value;
+    }
+
+    private LoxPromise then(LoxCallable callback) {
+        LoxPromise next = new LoxPromise(loop);
+        onSettle(() -> {
+            try {
+                next.resolve(callback.call(loop.interpreter, List.of(result())));
+            } catch (RuntimeException error) {
+                next.reject(error);
+            }
+        });
+        return next;
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (name.lexeme.equals("then")) {
+            return new LoxNative(1, (interpreter, arguments) -> {
+                if (!(arguments.get(0) instanceof LoxCallable callback) || callback.arity() != 1) {
+                    throw new NativeError("Callback must be a function with one parameter.");
+                }
+                return then(callback);
+            });
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<promise>";
+    }
+}
@@ -0,0 +1,51 @@
+package lox;
+
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.*;
+
+// Runs Lox in the background, one thread per evaluation. Threads are virtual
+// when the JVM supports them, so thousands of waiting scripts stay cheap;
+// on older JVMs they come from a pool with a thread per core.
+public final class LoxScheduler implements AutoCloseable {
+    private final ExecutorService executor;
+
+    public LoxScheduler() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.executor = Threads.virtualOr(() -> Executors.newFixedThreadPool(cores));
+    }
+
+    public CompletableFuture<Object> submit(LoxContext context, String source) {
+        return submit(() -> context.eval(source));
+    }
+
+    public CompletableFuture<Object> submit(CompiledScript script, Map<String, ?> bindings, Writer out) {
+        return submit(() -> script.execute(bindings, out));
+    }
+
+    private CompletableFuture<Object> submit(Callable<Object> task) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable error) {
+                future.completeExceptionally(error);
+            }
+        });
+        return future;
+    }
+
+    // Waits for the submitted evaluations to finish.
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting.
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package lox;
+
+import lox.token.Token;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.util.List;
+import java.util.function.Predicate;
+
+// A lazy pipeline over a source. Every stage wraps the loop body of the stage
+// after it, so a whole pipeline runs as one pass over the source that pushes
+// each value through all the stages before reading the next one. Nothing is
+// collected in between, and take() stops the source early.
+class LoxStream implements LoxObject, LoxIterable {
+    // The Stream global, which makes streams from sources.
+    static final LoxObject SOURCES = new LoxObject() {
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "range":
+                    return new LoxNative(2, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof Double start) || !(arguments.get(1) instanceof Double end)) {
+                            throw new NativeError("Range bounds must be numbers.");
+                        }
+                        return range(start, end);
+                    });
+                case "of":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof LoxIterable source)) {
+                            throw new NativeError("Can only stream iterable values.");
+                        }
+                        return new LoxStream(source);
+                    });
+                case "lines":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof String path)) {
+                            throw new NativeError("Path must be a string.");
+                        }
+                        return lines(path);
+                    });
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<native Stream>";
+        }
+    };
+
+    private final LoxIterable source;
+
+    LoxStream(LoxIterable source) {
+        this.source = source;
+    }
+
+    private static LoxStream range(double start, double end) {
+        return new LoxStream((interpreter, body) -> {
+            for (double i = start; i < end; i++) {
+                if (!body.test(i)) return;
+            }
+        });
+    }
+
+    // Reads the file as UTF-8 while the stream is run, holding one buffer of
+    // it at a time, so files of any size take the same memory.
+    static LoxStream lines(String path) {
+        return new LoxStream((interpreter, body) -> {
+            try (BufferedReader reader = LoxFile.reader(path)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!body.test(line)) return;
+                }
+            } catch (IOException | InvalidPathException e) {
+                throw new NativeError("Error reading file: " + path);
+            }
+        });
+    }
+
+    @Override
+    public void iterate(Interpreter interpreter, Predicate<Object> body) {
+        source.iterate(interpreter, body);
+    }
+
+    private LoxStream map(LoxCallable function) {
+        return new LoxStream((interpreter, body) ->
+                source.iterate(interpreter, value -> body.test(function.call(interpreter, List.of(value)))));
+    }
+
+    private LoxStream filter(LoxCallable predicate) {
+        return new LoxStream((interpreter, body) ->
+                source.iterate(interpreter, value ->
+                        !Interpreter.isTruthy(predicate.call(interpreter, List.of(value))) || body.test(value)));
+    }
+
+    private LoxStream take(double count) {
+        return new LoxStream((interpreter, body) -> {
+            if (count <= 0) return;
+            long[] taken = {0};
+            source.iterate(interpreter, value -> body.test(value) && ++taken[0] < count);
+        });
+    }
+
+    private LoxStream flatMap(LoxCallable function) {
+        return new LoxStream((interpreter, body) ->
+                source.iterate(interpreter, value -> {
+                    if (!(function.call(interpreter, List.of(value)) instanceof LoxIterable values)) {
+                        throw new NativeError("flatMap function must return an iterable value.");
+                    }
+
+                    boolean[] stopped = {false};
+                    values.iterate(interpreter, inner -> {
+                        if (body.test(inner)) return true;
+                        stopped[0] = true;
+                        return false;
+                    });
+                    return !stopped[0];
+                }));
+    }
+
+    private Object reduce(Interpreter interpreter, LoxCallable function, Object initial) {
+        Object[] result = {initial};
+        source.iterate(interpreter, value -> {
+            result[0] = function.call(interpreter, List.of(result[0], value));
+            return true;
+        });
+        return result[0];
+    }
+
+    private void forEach(Interpreter interpreter, LoxCallable function) {
+        source.iterate(interpreter, value -> {
+            function.call(interpreter, List.of(value));
+            return true;
+        });
+    }
+
+    private static LoxCallable function(Object value, int arity) {
+        if (!(value instanceof LoxCallable function) || function.arity() != arity) {
+            throw new NativeError("Expected a function with " + arity + (arity == 1 ? " parameter." : " parameters."));
+        }
+        return function;
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "map":
+                return new LoxNative(1, (interpreter, arguments) -> map(function(arguments.get(0), 1)));
+            case "filter":
+                return new LoxNative(1, (interpreter, arguments) -> filter(function(arguments.get(0), 1)));
+            case "take":
+                return new LoxNative(1, (interpreter, arguments) -> {
+                    if (!(arguments.get(0) instanceof Double count)) {
+                        throw new NativeError("Count must be a number.");
+                    }
+                    return take(count);
+                });
+            case "flatMap":
+                return new LoxNative(1, (interpreter, arguments) -> flatMap(function(arguments.get(0), 1)));
+            case "reduce":
+                return new LoxNative(2, (interpreter, arguments) ->
+                        reduce(interpreter, function(arguments.get(0), 2), arguments.get(1)));
+            case "forEach":
+                return new LoxNative(1, (interpreter, arguments) -> {
+                    forEach(interpreter, function(arguments.get(0), 1));
+                    return null;
+                });
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<stream>";
+    }
+}
@@ -0,0 +1,99 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// A function running on its own thread, started by spawn(). The task has its
+// own interpreter but the same globals, and the values it closes over or
+// receives are shared with other tasks, not copied. Starting a task, sending
+// a value through a channel and joining a task publish everything written
+// before, so an instance may be handed from one task to another this way.
+// An instance must not be modified by one task while another one uses it.
+class LoxTask implements LoxObject {
+    // Tasks block on each other, so without virtual threads every task needs
+    // a thread of its own.
+    private static final ExecutorService executor = Threads.virtualOr(() -> Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }));
+
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+    // Set once the script has seen the task's result or error with join().
+    private volatile boolean joined = false;
+
+    // The task's interpreter has an event loop of its own, which runs after
+    // the function returns, like the script's does after its last statement,
+    // so the timers and async calls the task starts end with it. A promise
+    // the function returns is awaited there, and the task's result is what
+    // it settles to.
+    LoxTask(Interpreter interpreter, LoxCallable function) {
+        executor.execute(() -> {
+            try {
+                Object value;
+                try {
+                    value = function.call(interpreter, List.of());
+                    if (value instanceof LoxPromise promise) value = interpreter.loop.await(promise);
+                } finally {
+                    interpreter.loop.run();
+                }
+                result.complete(value);
+            } catch (Throwable error) {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    // Waits for the task and returns its result, or rethrows its error.
+    Object join() {
+        joined = true;
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException exception) throw exception;
+            if (cause instanceof Error error) throw error;
+            throw e;
+        }
+    }
+
+    // Waits for the task and returns whether it succeeded.
+    boolean await() {
+        try {
+            result.join();
+            return true;
+        } catch (CompletionException e) {
+            return false;
+        }
+    }
+
+    // Waits for the task and returns its error if it failed and was never
+    // joined, so nothing else reported it, or null.
+    Throwable unjoinedError() {
+        try {
+            result.join();
+            return null;
+        } catch (CompletionException e) {
+            return joined ? null : e.getCause();
+        }
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (name.lexeme.equals("join")) {
+            return new LoxNative(0, (interpreter, arguments) -> join());
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
@@ -0,0 +1,420 @@
+package lox;
+
+import lox.token.Token;
+
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.function.Predicate;
+
+// A persistent vector. The elements live in a tree of 32-wide nodes, except
+// the last (up to) 32, which are kept in a separate tail so that push() and
+// pop() usually copy only the tail. set() copies the path from the root to
+// the element, at most log32(n) nodes, and shares everything else with the
+// vector it started from, which is left as it was.
+//
+// transient() returns a builder that changes the nodes it created itself in
+// place and copies the others once, so a batch of changes costs about as much
+// as the same changes to a list. persistent() turns it back into a vector and
+// ends the builder. A builder must stay in a single task.
+class LoxVector implements LoxObject, LoxIterable {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    // Nodes record the builder that created them, which may change them.
+    private static final class Node {
+        final Object edit;
+        final Object[] array;
+
+        Node(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+    }
+
+    private static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+    static final LoxVector EMPTY = new LoxVector(0, BITS, EMPTY_NODE, new Object[0]);
+
+    // The Vector global, which makes vectors.
+    static final LoxObject FACTORIES = new LoxObject() {
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "empty":
+                    return EMPTY;
+                case "of":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        if (!(arguments.get(0) instanceof LoxIterable source)) {
+                            throw new NativeError("Can only make a vector of iterable values.");
+                        }
+                        Transient builder = new Transient(EMPTY);
+                        source.iterate(interpreter, value -> {
+                            builder.push(value);
+                            return true;
+                        });
+                        return builder.persistent();
+                    });
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<native Vector>";
+        }
+    };
+
+    private final int count;
+    // Bits of the index used by the levels below the root.
+    private final int shift;
+    private final Node root;
+    private final Object[] tail;
+
+    private LoxVector(int count, int shift, Node root, Object[] tail) {
+        this.count = count;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // The index a Lox value refers to.
+    int index(Token bracket, Object index) {
+        if (!(index instanceof Double number) || number % 1 != 0) {
+            throw new RuntimeError(bracket, "Vector index must be an integer.");
+        }
+        if (number < 0 || number >= count) {
+            throw new RuntimeError(bracket, "Vector index out of range.");
+        }
+        return (int)(double)number;
+    }
+
+    private static int index(Object index, int count) {
+        if (!(index instanceof Double number) || number % 1 != 0) {
+            throw new NativeError("Vector index must be an integer.");
+        }
+        if (number < 0 || number >= count) throw new NativeError("Vector index out of range.");
+        return (int)(double)number;
+    }
+
+    Object get(int index) {
+        return arrayFor(index, count, shift, root, tail)[index & MASK];
+    }
+
+    private static int tailOffset(int count) {
+        return count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+    }
+
+    // The leaf (or the tail) holding the element.
+    private static Object[] arrayFor(int index, int count, int shift, Node root, Object[] tail) {
+        if (index >= tailOffset(count)) return tail;
+
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node)node.array[(index >>> level) & MASK];
+        }
+        return node.array;
+    }
+
+    // The node itself if the builder owns it, otherwise a copy it owns. A
+    // null edit always copies.
+    private static Node editable(Object edit, Node node) {
+        if (edit != null && node.edit == edit) return node;
+        return new Node(edit, node.array.clone());
+    }
+
+    private static Node set(Object edit, int level, Node node, int index, Object value) {
+        Node result = editable(edit, node);
+        if (level == 0) {
+            result.array[index & MASK] = value;
+        } else {
+            int sub = (index >>> level) & MASK;
+            result.array[sub] = set(edit, level - BITS, (Node)node.array[sub], index, value);
+        }
+        return result;
+    }
+
+    // Adds a full tail as the last leaf of a tree of count elements.
+    private static Node pushTail(Object edit, int count, int level, Node parent, Node tail) {
+        Node result = editable(edit, parent);
+        int sub = ((count - 1) >>> level) & MASK;
+        Node child;
+        if (level == BITS) {
+            child = tail;
+        } else {
+            Node existing = (Node)parent.array[sub];
+            child = existing != null
+                    ? pushTail(edit, count, level - BITS, existing, tail)
+                    : newPath(edit, level - BITS, tail);
+        }
+        result.array[sub] = child;
+        return result;
+    }
+
+    private static Node newPath(Object edit, int level, Node node) {
+        if (level == 0) return node;
+        Node path = new Node(edit, new Object[WIDTH]);
+        path.array[0] = newPath(edit, level - BITS, node);
+        return path;
+    }
+
+    // Removes the last leaf of a tree of count elements, returning null when
+    // nothing is left of the node.
+    private static Node popTail(Object edit, int count, int level, Node node) {
+        int sub = ((count - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Node child = popTail(edit, count, level - BITS, (Node)node.array[sub]);
+            if (child == null && sub == 0) return null;
+
+            Node result = editable(edit, node);
+            result.array[sub] = child;
+            return result;
+        }
+        if (sub == 0) return null;
+
+        Node result = editable(edit, node);
+        result.array[sub] = null;
+        return result;
+    }
+
+    private LoxVector set(int index, Object value) {
+        if (index >= tailOffset(count)) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = value;
+            return new LoxVector(count, shift, root, newTail);
+        }
+        return new LoxVector(count, shift, set(null, shift, root, index, value), tail);
+    }
+
+    private LoxVector push(Object value) {
+        if (count - tailOffset(count) < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = value;
+            return new LoxVector(count + 1, shift, root, newTail);
+        }
+
+        // The tail is full and goes into the tree, which grows a level when
+        // the root is full too.
+        Node tailNode = new Node(null, tail);
+        Node newRoot;
+        int newShift = shift;
+        if ((count >>> BITS) > (1 << shift)) {
+            newRoot = new Node(null, new Object[WIDTH]);
+            newRoot.array[0] = root;
+            newRoot.array[1] = newPath(null, shift, tailNode);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(null, count, shift, root, tailNode);
+        }
+        return new LoxVector(count + 1, newShift, newRoot, new Object[]{value});
+    }
+
+    private LoxVector pop() {
+        if (count == 0) throw new NativeError("Can't pop from an empty vector.");
+        if (count == 1) return EMPTY;
+
+        if (count - tailOffset(count) > 1) {
+            return new LoxVector(count - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+
+        // The last leaf of the tree becomes the tail.
+        Object[] newTail = arrayFor(count - 2, count, shift, root, tail);
+        Node newRoot = popTail(null, count, shift, root);
+        int newShift = shift;
+        if (newRoot == null) newRoot = EMPTY_NODE;
+        if (shift > BITS && newRoot.array[1] == null) {
+            newRoot = (Node)newRoot.array[0];
+            newShift -= BITS;
+        }
+        return new LoxVector(count - 1, newShift, newRoot, newTail);
+    }
+
+    // Queues the elements to be frozen.
+    void freeze(Deque<Object> pending) {
+        for (int i = 0; i < count; i++) {
+            Object element = get(i);
+            if (element != null) pending.push(element);
+        }
+    }
+
+    @Override
+    public void iterate(Interpreter interpreter, Predicate<Object> body) {
+        for (int i = 0; i < count; i += WIDTH) {
+            Object[] array = arrayFor(i, count, shift, root, tail);
+            for (int j = 0; j < WIDTH && i + j < count; j++) {
+                if (!body.test(array[j])) return;
+            }
+        }
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new Cursor() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext(Interpreter interpreter) {
+                return index < count;
+            }
+
+            @Override
+            public Object next(Interpreter interpreter) {
+                return get(index++);
+            }
+        };
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "length":
+                return (double)count;
+            case "get":
+                return new LoxNative(1, (interpreter, arguments) -> get(index(arguments.get(0), count)));
+            case "set":
+                return new LoxNative(2, (interpreter, arguments) ->
+                        set(index(arguments.get(0), count), arguments.get(1)));
+            case "push":
+                return new LoxNative(1, (interpreter, arguments) -> push(arguments.get(0)));
+            case "pop":
+                return new LoxNative(0, (interpreter, arguments) -> pop());
+            case "transient":
+                return new LoxNative(0, (interpreter, arguments) -> new Transient(this));
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Vector[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(Interpreter.stringify(get(i)));
+        }
+        return builder.append("]").toString();
+    }
+
+    // The builder returned by transient(). Its tail always has room for 32
+    // elements.
+    static final class Transient implements LoxObject {
+        // Null once persistent() was called.
+        private Object edit = new Object();
+        private int count;
+        private int shift;
+        private Node root;
+        private Object[] tail;
+
+        Transient(LoxVector vector) {
+            count = vector.count;
+            shift = vector.shift;
+            root = vector.root;
+            tail = Arrays.copyOf(vector.tail, WIDTH);
+        }
+
+        private void checkEditable() {
+            if (edit == null) throw new NativeError("Transient used after persistent().");
+        }
+
+        void push(Object value) {
+            checkEditable();
+            if (count - tailOffset(count) < WIDTH) {
+                tail[count & MASK] = value;
+                count++;
+                return;
+            }
+
+            Node tailNode = new Node(edit, tail);
+            if ((count >>> BITS) > (1 << shift)) {
+                Node newRoot = new Node(edit, new Object[WIDTH]);
+                newRoot.array[0] = root;
+                newRoot.array[1] = newPath(edit, shift, tailNode);
+                root = newRoot;
+                shift += BITS;
+            } else {
+                root = pushTail(edit, count, shift, root, tailNode);
+            }
+            tail = new Object[WIDTH];
+            tail[0] = value;
+            count++;
+        }
+
+        private void set(int index, Object value) {
+            checkEditable();
+            if (index >= tailOffset(count)) {
+                tail[index & MASK] = value;
+            } else {
+                root = LoxVector.set(edit, shift, root, index, value);
+            }
+        }
+
+        private Object pop() {
+            checkEditable();
+            if (count == 0) throw new NativeError("Can't pop from an empty vector.");
+
+            Object last = arrayFor(count - 1, count, shift, root, tail)[(count - 1) & MASK];
+            if (count == 1 || count - tailOffset(count) > 1) {
+                tail[(count - 1) & MASK] = null;
+                count--;
+                return last;
+            }
+
+            Object[] newTail = arrayFor(count - 2, count, shift, root, tail).clone();
+            Node newRoot = popTail(edit, count, shift, root);
+            if (newRoot == null) newRoot = new Node(edit, new Object[WIDTH]);
+            if (shift > BITS && newRoot.array[1] == null) {
+                newRoot = (Node)newRoot.array[0];
+                shift -= BITS;
+            }
+            root = newRoot;
+            tail = newTail;
+            count--;
+            return last;
+        }
+
+        LoxVector persistent() {
+            checkEditable();
+            edit = null;
+            int tailSize = count - tailOffset(count);
+            return new LoxVector(count, shift, root, Arrays.copyOf(tail, tailSize));
+        }
+
+        @Override
+        public Object get(Token name) {
+            switch (name.lexeme) {
+                case "length":
+                    return (double)count;
+                case "get":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        int index = index(arguments.get(0), count);
+                        return arrayFor(index, count, shift, root, tail)[index & MASK];
+                    });
+                case "set":
+                    return new LoxNative(2, (interpreter, arguments) -> {
+                        set(index(arguments.get(0), count), arguments.get(1));
+                        return this;
+                    });
+                case "push":
+                    return new LoxNative(1, (interpreter, arguments) -> {
+                        push(arguments.get(0));
+                        return this;
+                    });
+                case "pop":
+                    return new LoxNative(0, (interpreter, arguments) -> pop());
+                case "persistent":
+                    return new LoxNative(0, (interpreter, arguments) -> persistent());
+            }
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<transient vector>";
+        }
+    }
+}
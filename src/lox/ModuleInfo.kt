@@ -3,8 +3,15 @@ package lox
 import lox.token.Token
 import lox.token.TokenType
 
-class ModuleInfo(
+// Receives the compile and runtime errors of a module. The command line
+// prints them to stderr, embedders collect them.
+fun interface ErrorReporter {
+    fun report(message: String)
+}
+
+class ModuleInfo @JvmOverloads constructor(
     val name: String,
+    @JvmField val reporter: ErrorReporter = ErrorReporter { System.err.println(it) },
 ) {
     @JvmField var hadError: Boolean = false
     @JvmField var hadRuntimeError: Boolean = false
@@ -23,18 +30,18 @@ class ModuleInfo(
 
     private fun report(line: Int, where: String, message: String) {
         if (name == "__main__") {
-            System.err.println("[line ${line}] Error${where}: ${message}")
+            reporter.report("[line ${line}] Error${where}: ${message}")
         } else {
-            System.err.println("In module '${name}' on [line ${line}] Error${where}: ${message}")
+            reporter.report("In module '${name}' on [line ${line}] Error${where}: ${message}")
         }
         hadError = true
     }
 
     fun runtimeError(error: RuntimeError) {
         if (name == "__main__") {
-            System.err.println("${error.message}\n[line ${error.token.line}]")
+            reporter.report("${error.message}\n[line ${error.token.line}]")
         } else {
-            System.err.println("${error.message}\n[line ${error.token.line}] in module '${name}'")
+            reporter.report("${error.message}\n[line ${error.token.line}] in module '${name}'")
         }
         hadRuntimeError = true
     }
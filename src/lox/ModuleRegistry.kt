@@ -0,0 +1,65 @@
+package lox
+
+import lox.tool_gen.Stmt
+import java.nio.charset.Charset
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.ConcurrentHashMap
+
+
+// Where imports are read from. A module is read, parsed and resolved the
+// first time it's imported and the result is shared by everything using the
+// registry, which is why it has to be safe to use from several threads. The
+// module still runs again, in a new interpreter, every time it's imported.
+class ModuleRegistry @JvmOverloads constructor(
+    private val root: Path = Paths.get(""),
+) {
+    internal class Compiled(@JvmField val statements: List<Stmt>, @JvmField val globals: Globals)
+
+    private val modules = ConcurrentHashMap<String, Compiled>()
+
+    internal fun load(info: ModuleInfo): Compiled {
+        NATIVE_MODULES[info.name]?.let { return it }
+
+        val path = info.name + ".lox"
+        modules[path]?.let { return it }
+
+        val bytes: ByteArray
+        try {
+            bytes = Files.readAllBytes(root.resolve(path))
+        } catch (e: Exception) {
+            info.reporter.report("Error reading file: ${path}")
+            throw ModuleLoadError(71, "Error reading file: ${path}")
+        }
+
+        val scanner = Scanner(String(bytes, Charset.defaultCharset()), info)
+        val tokens = scanner.scanTokens()
+        val parser = Parser(tokens, info)
+        val statements = parser.parse()
+
+        // Stop if there was a syntax error.
+        if (info.hadError) {
+            throw ModuleLoadError(65, "Module '${info.name}' has errors.")
+        }
+
+        val globals = Interpreter.newGlobals()
+        val resolver = Resolver(info, globals)
+        resolver.resolve(statements)
+
+        // Stop if there was a resolution error.
+        if (info.hadError) {
+            throw ModuleLoadError(65, "Module '${info.name}' has errors.")
+        }
+
+        return modules.putIfAbsent(path, Compiled(statements, globals)) ?: modules.getValue(path)
+    }
+
+    companion object {
+        // Modules implemented in Java, which are found before any file.
+        private val NATIVE_MODULES = mapOf(
+            "math" to Compiled(emptyList(), LoxMath.globals()),
+            "json" to Compiled(emptyList(), LoxJson.globals()),
+        )
+    }
+}
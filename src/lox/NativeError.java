@@ -0,0 +1,9 @@
+package lox;
+
+// Thrown by native functions, which don't know where they were called from.
+// The interpreter turns it into a RuntimeError at the call.
+class NativeError extends RuntimeException {
+    NativeError(String message) {
+        super(message);
+    }
+}
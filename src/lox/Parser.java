@@ -39,7 +39,12 @@ class Parser {
     private Stmt declaration() {
         try {
             if (match(CLASS)) return classDeclaration();
-            if (match(FUN)) return function("function");
+            if (match(FUN)) return function("function", false);
+            if (check(ASYNC) && checkNext(FUN)) {
+                advance();
+                advance();
+                return function("function", true);
+            }
             if (match(VAR)) return varDeclaration();
             if (match(CONST)) return constDeclaration();
 
@@ -64,7 +69,7 @@ class Parser {
         List<Stmt.Function> methods = new ArrayList<>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
             consume(DEF, "Expect 'def' keyword before method declaration.");
-            methods.add(function("method"));
+            methods.add(function("method", false));
         }
 
         consume(RIGHT_BRACE, "Expect '}' after class body.");
@@ -81,6 +86,8 @@ class Parser {
         if (match(WHILE)) return whileStatement();
         if (match(BREAK)) return breakStatement();
         if (match(CONTINUE)) return continueStatement();
+        if (match(PARALLEL)) return parallelStatement();
+        if (match(YIELD)) return yieldStatement();
         if (match(LEFT_BRACE)) return new Stmt.Block(block());
 
         return expressionStatement();
@@ -92,6 +99,9 @@ class Parser {
         if (peek().type == AS) {
             advance();
             alias = consume(IDENTIFIER, "Expect identifier after 'as'.");
+        } else if (((String)name.literal).matches("[A-Za-z_][A-Za-z_0-9]*")) {
+            // Otherwise the module is bound to a variable named after it.
+            alias = new Token(IDENTIFIER, (String)name.literal, null, name.line);
         }
         consume(SEMICOLON, "Expect ';' after import statement.");
         return new Stmt.Import(name, alias);
@@ -103,7 +113,10 @@ class Parser {
         Stmt initializer;
         if (match(SEMICOLON)) {
             initializer = null;
+        } else if (check(IDENTIFIER) && checkNext(IN)) {
+            return forInStatement();
         } else if (match(VAR)) {
+            if (check(IDENTIFIER) && checkNext(IN)) return forInStatement();
             initializer = varDeclaration();
         } else {
             initializer = expressionStatement();
@@ -136,6 +149,16 @@ class Parser {
         return body;
     }
 
+    private Stmt forInStatement() {
+        Token name = consume(IDENTIFIER, "Expect variable name.");
+        consume(IN, "Expect 'in' after loop variable.");
+        Expr iterable = expression();
+        consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+        Stmt body = statement();
+
+        return new Stmt.ForIn(name, iterable, body);
+    }
+
     private Stmt ifStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
@@ -212,29 +235,42 @@ class Parser {
         return new Stmt.Continue(prev);
     }
 
+    private Stmt parallelStatement() {
+        Token keyword = previous();
+        consume(LEFT_BRACE, "Expect '{' after 'parallel'.");
+        return new Stmt.Parallel(keyword, new Stmt.Block(block()));
+    }
+
+    private Stmt yieldStatement() {
+        Token keyword = previous();
+        Expr value = expression();
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        return new Stmt.Yield(keyword, value);
+    }
+
     private Stmt expressionStatement() {
         Expr expr = expression();
         consume(SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Expression(expr);
     }
 
-    private Stmt.Function function(String kind) {
+    private Stmt.Function function(String kind, boolean isAsync) {
         Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
         consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
         List<Token> parameters = functionParameters();
 
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
         List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+        return new Stmt.Function(name, parameters, body, isAsync);
     }
 
-    private Expr.Lambda lambdaExpression() {
+    private Expr.Lambda lambdaExpression(boolean isAsync) {
         consume(LEFT_PAREN, "Expect '(' after 'lambda'.");
         List<Token> parameters = functionParameters();
 
         consume(LEFT_BRACE, "Expect '{' before 'lambda' body.");
         List<Stmt> body = block();
-        return new Expr.Lambda(new Stmt.Function(null, parameters, body));
+        return new Expr.Lambda(new Stmt.Function(null, parameters, body, isAsync));
     }
 
     private List<Token> functionParameters() {
@@ -275,6 +311,8 @@ class Parser {
                 return new Expr.Assign(name, value);
             } else if (expr instanceof Expr.Get get) {
                 return new Expr.Set(get.obj, get.name, value);
+            } else if (expr instanceof Expr.Index index) {
+                return new Expr.IndexSet(index.obj, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -362,6 +400,12 @@ class Parser {
             return new Expr.Unary(operator, right);
         }
 
+        if (match(AWAIT)) {
+            Token keyword = previous();
+            Expr value = unary();
+            return new Expr.Await(keyword, value);
+        }
+
         return call();
     }
 
@@ -381,6 +425,37 @@ class Parser {
         return new Expr.Call(callee, paren, arguments);
     }
 
+    private Expr listLiteral() {
+        Token bracket = previous();
+        List<Expr> elements = new ArrayList<>();
+        if (!check(RIGHT_BRACKET)) {
+            do {
+                if (check(RIGHT_BRACKET)) break;
+                elements.add(expression());
+            } while (match(COMMA));
+        }
+
+        consume(RIGHT_BRACKET, "Expect ']' after list elements.");
+        return new Expr.ListLiteral(bracket, elements);
+    }
+
+    private Expr mapLiteral() {
+        Token brace = previous();
+        List<Expr> keys = new ArrayList<>();
+        List<Expr> values = new ArrayList<>();
+        if (!check(RIGHT_BRACE)) {
+            do {
+                if (check(RIGHT_BRACE)) break;
+                keys.add(expression());
+                consume(COLON, "Expect ':' after map key.");
+                values.add(expression());
+            } while (match(COMMA));
+        }
+
+        consume(RIGHT_BRACE, "Expect '}' after map entries.");
+        return new Expr.MapLiteral(brace, keys, values);
+    }
+
     private Expr call() {
         Expr expr = primary();
 
@@ -390,6 +465,11 @@ class Parser {
             } else if (match(DOT)) {
                 Token name = consume(IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if (match(LEFT_BRACKET)) {
+                Token bracket = previous();
+                Expr index = expression();
+                consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -402,7 +482,11 @@ class Parser {
         if (match(FALSE)) return new Expr.Literal(false);
         if (match(TRUE)) return new Expr.Literal(true);
         if (match(NIL)) return new Expr.Literal(null);
-        if (match(LAMBDA)) return lambdaExpression();
+        if (match(LAMBDA)) return lambdaExpression(false);
+        if (match(ASYNC)) {
+            consume(LAMBDA, "Expect 'lambda' after 'async'.");
+            return lambdaExpression(true);
+        }
 
         if (match(NUMBER, STRING)) {
             return new Expr.Literal(previous().literal);
@@ -427,6 +511,9 @@ class Parser {
             return new Expr.Grouping(expr);
         }
 
+        if (match(LEFT_BRACKET)) return listLiteral();
+        if (match(LEFT_BRACE)) return mapLiteral();
+
         throw error(peek(), "Expect expression.");
     }
 
@@ -451,6 +538,11 @@ class Parser {
         return peek().type == type;
     }
 
+    private boolean checkNext(TokenType type) {
+        if (isAtEnd()) return false;
+        return tokens.get(current + 1).type == type;
+    }
+
     private Token advance() {
         if (!isAtEnd()) current++;
         return previous();
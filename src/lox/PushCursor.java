@@ -0,0 +1,109 @@
+package lox;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Pulls the values of an iterable that can only push them, like a stream,
+// by running iterate() on a thread of its own (a virtual one when the JVM
+// has them) that hands each value over and waits to be asked for the next.
+// The thread is only started by the first pull and ends with the iteration:
+// when the values run out, when the cursor is closed, or, for a cursor
+// abandoned halfway, when the cursor is garbage collected.
+final class PushCursor implements LoxIterable.Cursor {
+    private static final ExecutorService executor = Threads.virtualOr(() -> Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }));
+    private static final Cleaner cleaner = Cleaner.create(runnable -> {
+        Thread thread = new Thread(runnable, "lox-cursor-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LoxIterable iterable;
+    // Shared with the thread, which mustn't keep the cursor reachable.
+    private final Handoff handoff = new Handoff();
+    private final Cleaner.Cleanable cleanable;
+    private boolean started = false;
+
+    PushCursor(LoxIterable iterable) {
+        this.iterable = iterable;
+        this.cleanable = cleaner.register(this, handoff);
+    }
+
+    // The state of an iteration, and what ends it early.
+    private static final class Handoff implements Runnable {
+        final Semaphore resumed = new Semaphore(0);
+        final Semaphore suspended = new Semaphore(0);
+        volatile boolean closed = false;
+        boolean ready = false;
+        boolean done = false;
+        Object value = null;
+        RuntimeException error = null;
+
+        @Override
+        public void run() {
+            closed = true;
+            resumed.release();
+        }
+    }
+
+    @Override
+    public boolean hasNext(Interpreter interpreter) {
+        if (!handoff.ready && !handoff.done) resume(interpreter);
+        return handoff.ready;
+    }
+
+    @Override
+    public Object next(Interpreter interpreter) {
+        if (!hasNext(interpreter)) throw new NativeError("Iteration is exhausted.");
+        Object next = handoff.value;
+        handoff.ready = false;
+        handoff.value = null;
+        return next;
+    }
+
+    @Override
+    public void close() {
+        handoff.done = true;
+        cleanable.clean();
+    }
+
+    // Runs the iteration on its thread until it hands over a value or ends.
+    private void resume(Interpreter interpreter) {
+        Handoff handoff = this.handoff;
+        if (!started) {
+            started = true;
+            LoxIterable iterable = this.iterable;
+            Interpreter producer = interpreter.fork(interpreter.loop);
+            executor.execute(() -> {
+                try {
+                    iterable.iterate(producer, value -> {
+                        handoff.value = value;
+                        handoff.ready = true;
+                        handoff.suspended.release();
+                        handoff.resumed.acquireUninterruptibly();
+                        return !handoff.closed;
+                    });
+                } catch (RuntimeException error) {
+                    handoff.error = error;
+                } finally {
+                    handoff.done = true;
+                    handoff.suspended.release();
+                }
+            });
+        } else {
+            handoff.resumed.release();
+        }
+
+        handoff.suspended.acquireUninterruptibly();
+        if (handoff.error != null) {
+            RuntimeException error = handoff.error;
+            handoff.error = null;
+            throw error;
+        }
+    }
+}
@@ -8,17 +8,69 @@ import lox.tool_gen.Expr;
 import java.util.*;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
     private final ModuleInfo moduleInfo;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Globals globals;
+    private final Inliner inliner;
+    private final Stack<Scope> scopes = new Stack<>();
     private final Stack<Set<String>> constants = new Stack<>(); // Add this line
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
     private boolean isInLoop = false;
-
-    Resolver(Interpreter interpreter, ModuleInfo moduleInfo) {
-        this.interpreter = interpreter;
+    private boolean isInAsync = false;
+    private boolean isInParallel = false;
+    // The await the statement being resolved can stop at, see Resumable.
+    private Expr.Await awaitable = null;
+    private Stmt.Function currentDeclaration = null;
+    // The hidden global slots of synthetic top-level variables, by name.
+    private final Map<String, Integer> hiddenGlobals = new HashMap<>();
+
+    Resolver(ModuleInfo moduleInfo, Globals globals) {
         this.moduleInfo = moduleInfo;
+        this.globals = globals;
+        this.inliner = new Inliner(this);
+    }
+
+    // Function bodies and outermost scopes own a frame at runtime; every other
+    // scope stores its variables in the frame of the enclosing one. Closures
+    // copy the variables they reference from the enclosing frame into their
+    // own upvalue array, so only variables that may change after they are
+    // captured are boxed in a shared Cell.
+    private static class Scope {
+        final Scope enclosing;
+        final Stmt owner;
+        final Scope frame;
+        final Map<String, Local> locals = new HashMap<>();
+        final List<Local> frameLocals = new ArrayList<>();
+        final List<Local> upvalues = new ArrayList<>();
+        final List<Integer> upvalueIndexes = new ArrayList<>();
+
+        Scope(Scope enclosing, Stmt owner) {
+            this.enclosing = enclosing;
+            this.owner = owner;
+            this.frame = owner instanceof Stmt.Function || enclosing == null ? this : enclosing.frame;
+        }
+    }
+
+    private static class Local {
+        final Scope scope;
+        final Stmt declaration;
+        final int slot;
+        final List<Expr> references = new ArrayList<>();
+        boolean defined = false;
+        boolean initialized = false;
+        boolean captured = false;
+        boolean reassigned = false;
+
+        Local(Scope scope, Stmt declaration) {
+            this.scope = scope;
+            this.declaration = declaration;
+            this.slot = scope.frame.frameLocals.size();
+            scope.frame.frameLocals.add(this);
+        }
+
+        boolean isBoxed() {
+            return captured && reassigned;
+        }
     }
 
     private enum FunctionType {
@@ -36,6 +88,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     void resolve(List<Stmt> statements) {
+        boolean isTopLevel = scopes.isEmpty();
+        if (isTopLevel) inliner.collect(statements);
+
         for (Stmt statement : statements) {
             resolve(statement);
         }
@@ -77,12 +132,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 Token errMessage = new Token(TokenType.SEMICOLON, ";", null, stmt.name.line);
                 moduleInfo.error(errMessage, "Expected alias: Import name contains one or more of following characters: '\\', '/', '-', '.'.");
             } else {
-                declare(stmt.alias);
+                declare(stmt.alias, stmt);
                 define(stmt.alias);
+                initialize(stmt.alias);
             }
         } else {
-            declare(stmt.name);
-            define(stmt.name);
+            Token variable = Objects.requireNonNullElse(stmt.alias, stmt.name);
+            declare(variable, stmt);
+            define(variable);
+            initialize(variable);
         }
 
         return null;
@@ -90,7 +148,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        beginScope(stmt);
         resolve(stmt.statements);
         endScope();
         return null;
@@ -101,7 +159,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
@@ -114,13 +172,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         if (stmt.superclass != null) {
-            beginScope();
-            scopes.peek().put("super", true);
+            beginScope(stmt);
+            stmt.superSlot = declareImplicit("super").slot;
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             assert method.name != null;
@@ -131,10 +186,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        endScope();
-
         if (stmt.superclass != null) endScope();
 
+        initialize(stmt.name);
         currentClass = enclosingClass;
         return null;
     }
@@ -147,10 +201,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
+        initialize(stmt.name);
         return null;
     }
 
@@ -187,11 +242,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
         define(stmt.name);
+        initialize(stmt.name);
 
         if (stmt.varType == TokenType.CONST) {
             if (constants.isEmpty()) {
@@ -212,6 +268,47 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForInStmt(Stmt.ForIn stmt) {
+        resolve(stmt.iterable);
+
+        beginScope(stmt);
+        declare(stmt.name, stmt);
+        define(stmt.name);
+        initialize(stmt.name);
+
+        beginLoop();
+        resolve(stmt.body);
+        endLoop();
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            moduleInfo.error(stmt.keyword, "Can't yield from top-level code.");
+        } else if (currentFunction == FunctionType.INITIALIZER) {
+            moduleInfo.error(stmt.keyword, "Can't yield from an initializer.");
+        } else if (isInAsync) {
+            moduleInfo.error(stmt.keyword, "Can't yield from an async function.");
+        } else {
+            currentDeclaration.isGenerator = true;
+        }
+
+        resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitParallelStmt(Stmt.Parallel stmt) {
+        boolean enclosingParallel = isInParallel;
+        isInParallel = true;
+        resolve(stmt.body);
+        isInParallel = enclosingParallel;
+        return null;
+    }
+
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
         if (!isInLoop) {
@@ -236,11 +333,32 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             moduleInfo.error(expr.name, "Cannot reassign a constant.");
         }
 
-        resolveLocal(expr, expr.name);
+        Local local = resolveLocal(expr, expr.name);
+        if (local != null) {
+            local.reassigned = true;
+        } else {
+            expr.global = globalSlot(expr.name);
+            inliner.reassigned(expr.name);
+        }
 
         return null;
     }
 
+    @Override
+    public Void visitAwaitExpr(Expr.Await expr) {
+        if (currentFunction != FunctionType.NONE && !isInAsync) {
+            moduleInfo.error(expr.keyword, "Can only use 'await' in async functions and top-level code.");
+        } else if (isInAsync && expr != awaitable) {
+            moduleInfo.error(expr.keyword, "'await' in an async function must be a whole statement or the whole " +
+                    "value of a variable, assignment, print or return.");
+        } else if (isInAsync && isInParallel) {
+            moduleInfo.error(expr.keyword, "Can't use 'await' in a 'parallel' block of an async function.");
+        }
+
+        resolve(expr.value);
+        return null;
+    }
+
     @Override
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
@@ -256,6 +374,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(argument);
         }
 
+        inliner.inline(expr);
         return null;
     }
 
@@ -271,6 +390,46 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.obj);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.value);
+
+        if (expr.obj instanceof Expr.Variable variable) {
+            if (!constants.isEmpty() && constants.peek().contains(variable.name.lexeme)) {
+                moduleInfo.error(expr.bracket, "Cannot modify an element of a constant list or map.");
+                return null;
+            }
+        }
+
+        resolve(expr.obj);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        for (Expr element : expr.elements) {
+            resolve(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            resolve(expr.keys.get(i));
+            resolve(expr.values.get(i));
+        }
+        return null;
+    }
+
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
@@ -312,6 +471,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         resolveLocal(expr, expr.keyword);
+
+        Expr.This receiver = new Expr.This(new Token(TokenType.THIS, "this", null, expr.keyword.line));
+        resolveLocal(receiver, receiver.keyword);
+        expr.receiver = receiver;
         return null;
     }
 
@@ -334,16 +497,22 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        if (!scopes.isEmpty() && scopes.peek().locals.containsKey(expr.name.lexeme) &&
+                !scopes.peek().locals.get(expr.name.lexeme).defined) {
             moduleInfo.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        if (resolveLocal(expr, expr.name) == null) {
+            expr.global = globalSlot(expr.name);
+        }
         return null;
     }
 
     private void resolve(Stmt stmt) {
+        Expr.Await enclosingAwaitable = awaitable;
+        awaitable = Resumable.awaited(stmt);
         stmt.accept(this);
+        awaitable = enclosingAwaitable;
     }
 
     private void resolve(Expr expr) {
@@ -352,26 +521,96 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
+        boolean enclosingAsync = isInAsync;
+        boolean enclosingParallel = isInParallel;
+        Stmt.Function enclosingDeclaration = currentDeclaration;
         currentFunction = type;
+        isInAsync = function.isAsync;
+        isInParallel = false;
+        currentDeclaration = function;
+
+        beginScope(function);
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            declareImplicit("this");
+        }
 
-        beginScope();
         for (Token param : function.params) {
-            declare(param);
+            declare(param, function);
             define(param);
+            initialize(param);
         }
         resolve(function.body);
         endScope();
         currentFunction = enclosingFunction;
+        isInAsync = enclosingAsync;
+        isInParallel = enclosingParallel;
+        currentDeclaration = enclosingDeclaration;
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<>());
+    private void beginScope(Stmt owner) {
+        scopes.push(new Scope(scopes.isEmpty() ? null : scopes.peek(), owner));
         constants.push(new HashSet<>());
     }
 
     private void endScope() {
-        scopes.pop();
+        Scope scope = scopes.pop();
         constants.pop();
+
+        if (scope.frame == scope) endFrame(scope);
+    }
+
+    // Every reference to the locals of a frame is resolved by the time the
+    // frame ends, so it is known which of them have to be boxed.
+    private void endFrame(Scope scope) {
+        List<Integer> boxedParams = new ArrayList<>();
+        for (Local local : scope.frameLocals) {
+            if (!local.isBoxed()) continue;
+
+            if (local.declaration == scope.owner && scope.owner instanceof Stmt.Function) {
+                boxedParams.add(local.slot);
+            } else if (local.declaration instanceof Stmt.Var var) {
+                var.boxed = true;
+            } else if (local.declaration instanceof Stmt.ForIn forIn) {
+                forIn.boxed = true;
+            } else if (local.declaration instanceof Stmt.Function function) {
+                function.boxed = true;
+            } else if (local.declaration instanceof Stmt.Class klass) {
+                klass.boxed = true;
+            } else if (local.declaration instanceof Stmt.Import module) {
+                module.boxed = true;
+            }
+
+            for (Expr reference : local.references) {
+                if (reference instanceof Expr.Variable variable) {
+                    variable.boxed = true;
+                } else if (reference instanceof Expr.Assign assign) {
+                    assign.boxed = true;
+                }
+            }
+        }
+
+        int frameSize = scope.frameLocals.size();
+        if (scope.owner instanceof Stmt.Function function) {
+            function.frameSize = frameSize;
+            function.upvalues = toArray(scope.upvalueIndexes);
+            function.boxedParams = toArray(boxedParams);
+        } else if (scope.owner instanceof Stmt.Block block) {
+            block.frameSize = frameSize;
+        } else if (scope.owner instanceof Stmt.ForIn forIn) {
+            forIn.frameSize = frameSize;
+        } else if (scope.owner instanceof Stmt.Class klass) {
+            klass.frameSize = frameSize;
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        if (list.isEmpty()) return null;
+
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
     }
 
     private void beginLoop() {
@@ -382,28 +621,142 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         isInLoop = false;
     }
 
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
+    private void declare(Token name, Stmt declaration) {
+        // Globals are defined by name, but get their slot now, so running the
+        // code never adds to a slot table shared by every run of it.
+        if (scopes.isEmpty()) {
+            globalSlot(name);
+            return;
+        }
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
+        Scope scope = scopes.peek();
+        if (scope.locals.containsKey(name.lexeme)) {
             moduleInfo.error(name, "Already a variable with this name in this scope.");
         }
 
-        scope.put(name.lexeme, false);
+        Local local = new Local(scope, declaration);
+        scope.locals.put(name.lexeme, local);
+
+        if (declaration instanceof Stmt.Var var) {
+            var.slot = local.slot;
+        } else if (declaration instanceof Stmt.ForIn forIn) {
+            forIn.slot = local.slot;
+        } else if (declaration instanceof Stmt.Class klass) {
+            klass.slot = local.slot;
+        } else if (declaration instanceof Stmt.Import module) {
+            module.slot = local.slot;
+        } else if (declaration instanceof Stmt.Function function && function.name == name) {
+            function.slot = local.slot;
+        }
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().locals.get(name.lexeme).defined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private void initialize(Token name) {
+        if (scopes.isEmpty()) return;
+        scopes.peek().locals.get(name.lexeme).initialized = true;
+    }
+
+    private Local declareImplicit(String name) {
+        Local local = new Local(scopes.peek(), null);
+        local.defined = true;
+        local.initialized = true;
+        scopes.peek().locals.put(name, local);
+        return local;
+    }
+
+    // Synthetic variables at the top level get hidden global slots, so they
+    // don't show up among the module's globals.
+    void declareSynthetic(Stmt.Var declaration) {
+        if (scopes.isEmpty()) {
+            declaration.global = globals.hiddenSlot();
+            hiddenGlobals.put(declaration.name.lexeme, declaration.global);
+            return;
+        }
+        declare(declaration.name, declaration);
+        define(declaration.name);
+        initialize(declaration.name);
+    }
+
+    boolean isLocal(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).locals.containsKey(name.lexeme)) return true;
+        }
+        return false;
+    }
+
+    int globalSlot(Token name) {
+        return globals.slot(name.lexeme);
+    }
+
+    void resolveSynthetic(Expr expr, Token name) {
+        if (resolveLocal(expr, name) != null) return;
+
+        int slot = hiddenGlobals.getOrDefault(name.lexeme, -1);
+        if (slot < 0) slot = globalSlot(name);
+        if (expr instanceof Expr.Variable variable) {
+            variable.global = slot;
+        } else if (expr instanceof Expr.Assign assign) {
+            assign.global = slot;
+        }
+    }
+
+    private Local resolveLocal(Expr expr, Token name) {
+        if (scopes.isEmpty()) return null;
+
+        Scope frame = scopes.peek().frame;
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            Local local = scopes.get(i).locals.get(name.lexeme);
+            if (local == null) continue;
+
+            int slot = -1;
+            int upvalue = -1;
+            if (local.scope.frame == frame) {
+                slot = local.slot;
+            } else {
+                local.captured = true;
+                // Captured before its declaration finished running, so the
+                // closure has to see the value assigned afterwards.
+                if (!local.initialized) local.reassigned = true;
+                upvalue = addUpvalue(frame, local);
+            }
+
+            local.references.add(expr);
+            if (expr instanceof Expr.Variable variable) {
+                variable.slot = slot;
+                variable.upvalue = upvalue;
+            } else if (expr instanceof Expr.Assign assign) {
+                assign.slot = slot;
+                assign.upvalue = upvalue;
+            } else if (expr instanceof Expr.This thisExpr) {
+                thisExpr.slot = slot;
+                thisExpr.upvalue = upvalue;
+            } else if (expr instanceof Expr.Super superExpr) {
+                superExpr.upvalue = upvalue;
             }
+            return local;
         }
+
+        return null;
+    }
+
+    // Upvalue indexes >= 0 copy a slot of the enclosing frame, negative ones
+    // (-1 - index) copy an upvalue of the enclosing function.
+    private int addUpvalue(Scope frame, Local local) {
+        int index = frame.upvalues.indexOf(local);
+        if (index >= 0) return index;
+
+        Scope enclosing = frame.enclosing.frame;
+        if (local.scope.frame == enclosing) {
+            frame.upvalueIndexes.add(local.slot);
+        } else {
+            frame.upvalueIndexes.add(-1 - addUpvalue(enclosing, local));
+        }
+
+        frame.upvalues.add(local);
+        return frame.upvalues.size() - 1;
     }
 }
@@ -0,0 +1,385 @@
+package lox;
+
+import lox.loop_control_flow.Break;
+import lox.loop_control_flow.Continue;
+import lox.tool_gen.Expr;
+import lox.tool_gen.Stmt;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// The body of a generator pulled with next() or of an async call, run so
+// that it can stop at a yield or an await and go on from there later, on
+// whichever thread resumes it, without a thread of its own in between.
+//
+// Only the statements containing a yield or an await (Function.suspending)
+// are run here: the blocks, ifs and loops around them keep where they are on
+// a stack of frames. Every other statement runs in the interpreter as usual,
+// and the break, continue or return it throws is handed to the frames the
+// way the interpreter's own loops and blocks would handle it. An await has
+// to be the whole of its statement, or all of what it assigns, prints or
+// returns (see awaited()), so nothing else is half evaluated when it stops.
+final class Resumable {
+    private final Globals globals;
+    private final Environment environment;
+    private final Set<? extends Stmt> suspending;
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    // What the last yield produced, or the value returned once it's done.
+    Object value = null;
+    // The statement stopped at, and the promise it waits for.
+    private Stmt awaiting = null;
+    private LoxPromise promise = null;
+
+    Resumable(LoxFunction function, List<Object> arguments) {
+        this.globals = function.globals;
+        this.environment = function.frame(arguments);
+        this.suspending = suspending(function.declaration);
+        frames.push(new BlockFrame(function.declaration.body));
+    }
+
+    // Thrown through a statement run on a thread by PushCursor to leave it.
+    private static final class Stop extends RuntimeException {
+        Stop() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Stop STOP = new Stop();
+
+    // The promise the body waits for after resume() returned true at an
+    // await. It's resumed once the promise is settled.
+    LoxPromise promise() {
+        return promise;
+    }
+
+    // Runs the body until it yields or waits for a promise, returning true,
+    // or ends.
+    boolean resume(Interpreter interpreter) {
+        Environment previousEnvironment = interpreter.environment;
+        Globals previousGlobals = interpreter.globals;
+        interpreter.environment = environment;
+        interpreter.globals = globals;
+        try {
+            if (awaiting != null) {
+                Stmt statement = awaiting;
+                LoxPromise promise = this.promise;
+                awaiting = null;
+                this.promise = null;
+                try {
+                    finish(interpreter, statement, promise);
+                } catch (RuntimeException signal) {
+                    unwind(signal);
+                }
+            }
+
+            while (!frames.isEmpty()) {
+                try {
+                    if (frames.peek().step(interpreter)) return true;
+                } catch (RuntimeException signal) {
+                    unwind(signal);
+                }
+            }
+            return false;
+        } catch (Return returned) {
+            value = returned.value;
+            return false;
+        } finally {
+            interpreter.environment = previousEnvironment;
+            interpreter.globals = previousGlobals;
+        }
+    }
+
+    // Hands a break, continue or return (or error) to the innermost frame
+    // that handles it, leaving the ones it passes through.
+    private void unwind(RuntimeException signal) {
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            if (frame.handle(signal)) return;
+            frames.pop();
+            frame.leave();
+        }
+        throw signal;
+    }
+
+    // Runs a statement of the body, returning true if it yielded. Loops and
+    // blocks containing a yield are pushed, to be run by the next steps.
+    private boolean run(Interpreter interpreter, Stmt statement) {
+        if (!suspending.contains(statement)) {
+            statement.accept(interpreter);
+            return false;
+        }
+
+        Expr.Await await = awaited(statement);
+        if (await != null) {
+            if (statement instanceof Stmt.Var stmt) interpreter.declareVariable(stmt);
+            Object operand = await.value.accept(interpreter);
+            if (!(operand instanceof LoxPromise promise)) {
+                finish(interpreter, statement, operand);
+            } else if (promise.isSettled()) {
+                finish(interpreter, statement, promise);
+            } else {
+                awaiting = statement;
+                this.promise = promise;
+                return true;
+            }
+        } else if (statement instanceof Stmt.Yield stmt) {
+            value = stmt.value.accept(interpreter);
+            return true;
+        } else if (statement instanceof Stmt.If stmt) {
+            if (Interpreter.isTruthy(stmt.condition.accept(interpreter))) {
+                return run(interpreter, stmt.thenBranch);
+            } else if (stmt.elseBranch != null) {
+                return run(interpreter, stmt.elseBranch);
+            }
+        } else if (statement instanceof Stmt.Block stmt) {
+            frames.push(new BlockFrame(stmt.statements));
+        } else if (statement instanceof Stmt.While stmt) {
+            frames.push(new WhileFrame(stmt));
+        } else if (statement instanceof Stmt.ForIn stmt) {
+            frames.push(new ForInFrame(stmt, interpreter.iterable(stmt).cursor()));
+        } else if (statement instanceof Stmt.Parallel stmt) {
+            frames.push(new CursorFrame(new PushCursor(pushing(stmt))));
+        }
+        return false;
+    }
+
+    private void finish(Interpreter interpreter, Stmt statement, LoxPromise promise) {
+        Object value;
+        try {
+            value = promise.result();
+        } catch (NativeError error) {
+            throw new RuntimeError(awaited(statement).keyword, error.getMessage());
+        }
+        finish(interpreter, statement, value);
+    }
+
+    // Does what's left of the statement once the value it awaited is there.
+    private void finish(Interpreter interpreter, Stmt statement, Object value) {
+        if (statement instanceof Stmt.Expression stmt) {
+            if (stmt.expression instanceof Expr.Assign assign) interpreter.assign(assign, value);
+        } else if (statement instanceof Stmt.Var stmt) {
+            interpreter.defineVariable(stmt, value);
+        } else if (statement instanceof Stmt.Print) {
+            interpreter.out.println(value);
+        } else if (statement instanceof Stmt.Return) {
+            throw new Return(value);
+        }
+    }
+
+    // The await a statement can stop at: one that is the whole statement,
+    // or all of the value it assigns to a variable, prints or returns.
+    // The Resolver doesn't allow any other await in async functions.
+    static Expr.Await awaited(Stmt statement) {
+        Expr expr = null;
+        if (statement instanceof Stmt.Expression stmt) {
+            expr = stmt.expression instanceof Expr.Assign assign ? assign.value : stmt.expression;
+        } else if (statement instanceof Stmt.Var stmt) {
+            expr = stmt.initializer;
+        } else if (statement instanceof Stmt.Print stmt) {
+            expr = stmt.expression;
+        } else if (statement instanceof Stmt.Return stmt) {
+            expr = stmt.value;
+        }
+        return expr instanceof Expr.Await await ? await : null;
+    }
+
+    // A 'parallel' block has to wait for its tasks before it ends, so it
+    // runs in the interpreter, on a thread that hands over what it yields.
+    private LoxIterable pushing(Stmt.Parallel stmt) {
+        Environment environment = this.environment;
+        Globals globals = this.globals;
+        return (interpreter, body) -> {
+            interpreter.environment = environment;
+            interpreter.globals = globals;
+            interpreter.sink = value -> {
+                if (!body.test(value)) throw STOP;
+            };
+            try {
+                stmt.accept(interpreter);
+            } catch (Stop ignored) {
+            }
+        };
+    }
+
+    private abstract static class Frame {
+        // Runs the next statement of the frame, returning true if the body
+        // yielded. A frame with nothing left to run pops itself.
+        abstract boolean step(Interpreter interpreter);
+
+        // Handles a break or continue thrown by a statement of the frame,
+        // returning false to pass it on.
+        boolean handle(RuntimeException signal) {
+            return false;
+        }
+
+        // Called when something the frame doesn't handle leaves it.
+        void leave() {}
+    }
+
+    // Like Interpreter.executeBlock(): after a continue only the last
+    // statement, the increment of a for loop, runs, and the continue is then
+    // passed on to the loop.
+    private final class BlockFrame extends Frame {
+        private final List<Stmt> statements;
+        private int next = 0;
+        private boolean didContinue = false;
+
+        BlockFrame(List<Stmt> statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        boolean step(Interpreter interpreter) {
+            if (next == statements.size()) {
+                frames.pop();
+                if (didContinue) throw Continue.INSTANCE;
+                return false;
+            }
+            return run(interpreter, statements.get(next++));
+        }
+
+        @Override
+        boolean handle(RuntimeException signal) {
+            if (signal != Continue.INSTANCE) return false;
+            didContinue = true;
+            next = Math.max(next, statements.size() - 1);
+            return true;
+        }
+    }
+
+    private final class WhileFrame extends Frame {
+        private final Stmt.While stmt;
+        private boolean broken = false;
+
+        WhileFrame(Stmt.While stmt) {
+            this.stmt = stmt;
+        }
+
+        @Override
+        boolean step(Interpreter interpreter) {
+            if (broken || !Interpreter.isTruthy(stmt.condition.accept(interpreter))) {
+                frames.pop();
+                return false;
+            }
+            return run(interpreter, stmt.body);
+        }
+
+        @Override
+        boolean handle(RuntimeException signal) {
+            if (signal == Break.INSTANCE) broken = true;
+            return signal == Break.INSTANCE || signal == Continue.INSTANCE;
+        }
+    }
+
+    private final class ForInFrame extends Frame {
+        private final Stmt.ForIn stmt;
+        private final LoxIterable.Cursor values;
+        private boolean broken = false;
+
+        ForInFrame(Stmt.ForIn stmt, LoxIterable.Cursor values) {
+            this.stmt = stmt;
+            this.values = values;
+        }
+
+        @Override
+        boolean step(Interpreter interpreter) {
+            Object value;
+            try {
+                if (broken || !values.hasNext(interpreter)) {
+                    frames.pop();
+                    values.close();
+                    return false;
+                }
+                value = values.next(interpreter);
+            } catch (NativeError error) {
+                frames.pop();
+                throw new RuntimeError(stmt.name, error.getMessage());
+            }
+
+            interpreter.defineLoopVariable(stmt, value);
+            return run(interpreter, stmt.body);
+        }
+
+        @Override
+        boolean handle(RuntimeException signal) {
+            if (signal == Break.INSTANCE) broken = true;
+            return signal == Break.INSTANCE || signal == Continue.INSTANCE;
+        }
+
+        @Override
+        void leave() {
+            values.close();
+        }
+    }
+
+    // Yields every value of the cursor. What ended the statement behind it
+    // early, like a break out of a 'parallel' block, is passed on.
+    private final class CursorFrame extends Frame {
+        private final LoxIterable.Cursor values;
+
+        CursorFrame(LoxIterable.Cursor values) {
+            this.values = values;
+        }
+
+        @Override
+        boolean step(Interpreter interpreter) {
+            try {
+                if (values.hasNext(interpreter)) {
+                    value = values.next(interpreter);
+                    return true;
+                }
+            } catch (RuntimeException signal) {
+                frames.pop();
+                throw signal;
+            }
+            frames.pop();
+            return false;
+        }
+
+        @Override
+        void leave() {
+            values.close();
+        }
+    }
+
+    // The statements containing a yield or an await, found the first time
+    // the function runs here. Those of nested functions belong to them.
+    private static Set<? extends Stmt> suspending(Stmt.Function declaration) {
+        Set<? extends Stmt> suspending = declaration.suspending;
+        if (suspending == null) {
+            Set<Stmt> found = new HashSet<>();
+            for (Stmt statement : declaration.body) {
+                find(statement, found);
+            }
+            suspending = Set.copyOf(found);
+            declaration.suspending = suspending;
+        }
+        return suspending;
+    }
+
+    private static boolean find(Stmt statement, Set<Stmt> found) {
+        boolean suspends = false;
+        if (statement instanceof Stmt.Yield || awaited(statement) != null) {
+            suspends = true;
+        } else if (statement instanceof Stmt.Block stmt) {
+            for (Stmt inner : stmt.statements) {
+                suspends |= find(inner, found);
+            }
+        } else if (statement instanceof Stmt.If stmt) {
+            suspends = find(stmt.thenBranch, found);
+            if (stmt.elseBranch != null) suspends |= find(stmt.elseBranch, found);
+        } else if (statement instanceof Stmt.While stmt) {
+            suspends = find(stmt.body, found);
+        } else if (statement instanceof Stmt.ForIn stmt) {
+            suspends = find(stmt.body, found);
+        } else if (statement instanceof Stmt.Parallel stmt) {
+            suspends = find(stmt.body, found);
+        }
+
+        if (suspends) found.add(statement);
+        return suspends;
+    }
+}
@@ -38,6 +38,11 @@ class Scanner {
         keywords.put("while",     WHILE);
         keywords.put("break",     BREAK);
         keywords.put("continue",  CONTINUE);
+        keywords.put("parallel",  PARALLEL);
+        keywords.put("async",     ASYNC);
+        keywords.put("await",     AWAIT);
+        keywords.put("in",        IN);
+        keywords.put("yield",     YIELD);
     }
 
     private final String source;
@@ -71,11 +76,14 @@ class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
             case '+': addToken(PLUS); break;
             case ';': addToken(SEMICOLON); break;
+            case ':': addToken(COLON); break;
             case '*': addToken(STAR); break;
             case '%': addToken(PERCENT); break;
             case '!':
@@ -0,0 +1,19 @@
+package lox;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+class Threads {
+    // An executor starting a virtual thread per task when the JVM supports
+    // them (JDK 21), otherwise the fallback.
+    static ExecutorService virtualOr(Supplier<ExecutorService> fallback) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return fallback.get();
+        }
+    }
+}
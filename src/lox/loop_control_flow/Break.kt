@@ -1,3 +1,3 @@
 package lox.loop_control_flow
 
-class Break : RuntimeException(null, null, false, false)
+object Break : RuntimeException(null, null, false, false)
@@ -1,3 +1,3 @@
 package lox.loop_control_flow
 
-class Continue internal constructor() : RuntimeException(null, null, false, false)
+object Continue : RuntimeException(null, null, false, false)
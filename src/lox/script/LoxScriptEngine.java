@@ -0,0 +1,94 @@
+package lox.script;
+
+import lox.LoxEngine;
+import lox.LoxException;
+
+import javax.script.*;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+// JSR-223 adapter for LoxEngine. The bindings of the context become globals
+// of the script, those of the engine scope hiding global scope ones with the
+// same name, and its output goes to the context's writer.
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final LoxEngine engine = new LoxEngine();
+    private final ScriptEngineFactory factory;
+
+    LoxScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return compile(reader).eval(context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        try {
+            return new Script(engine.compile(script));
+        } catch (LoxException e) {
+            throw new ScriptException(e.getMessage());
+        }
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        StringWriter source = new StringWriter();
+        try {
+            script.transferTo(source);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return compile(source.toString());
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private class Script extends CompiledScript {
+        private final lox.CompiledScript script;
+
+        Script(lox.CompiledScript script) {
+            this.script = script;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            try {
+                return script.execute(bindings(context), context.getWriter());
+            } catch (LoxException e) {
+                throw new ScriptException(e.getMessage());
+            }
+        }
+
+        private Map<String, Object> bindings(ScriptContext context) {
+            Map<String, Object> bindings = new HashMap<>();
+            Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+            if (global != null) bindings.putAll(global);
+            Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            if (engine != null) bindings.putAll(engine);
+            return bindings;
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return LoxScriptEngine.this;
+        }
+    }
+}
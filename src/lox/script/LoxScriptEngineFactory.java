@@ -0,0 +1,68 @@
+package lox.script;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import java.util.List;
+
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+    @Override
+    public String getEngineName() { return "jlox"; }
+
+    @Override
+    public String getEngineVersion() { return "1.0"; }
+
+    @Override
+    public List<String> getExtensions() { return List.of("lox"); }
+
+    @Override
+    public List<String> getMimeTypes() { return List.of("application/x-lox"); }
+
+    @Override
+    public List<String> getNames() { return List.of("lox", "jlox"); }
+
+    @Override
+    public String getLanguageName() { return "Lox"; }
+
+    @Override
+    public String getLanguageVersion() { return "1.0"; }
+
+    @Override
+    public Object getParameter(String key) {
+        return switch (key) {
+            case ScriptEngine.ENGINE -> getEngineName();
+            case ScriptEngine.ENGINE_VERSION -> getEngineVersion();
+            case ScriptEngine.NAME -> getNames().get(0);
+            case ScriptEngine.LANGUAGE -> getLanguageName();
+            case ScriptEngine.LANGUAGE_VERSION -> getLanguageVersion();
+            // Compiled scripts can be evaluated from several threads at once.
+            case "THREADING" -> "MULTITHREADED";
+            default -> null;
+        };
+    }
+
+    @Override
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        return obj + "." + m + "(" + String.join(", ", args) + ")";
+    }
+
+    @Override
+    public String getOutputStatement(String toDisplay) {
+        return "print \"" + toDisplay.replace("\\", "\\\\").replace("\"", "\\\"") + "\";";
+    }
+
+    @Override
+    public String getProgram(String... statements) {
+        StringBuilder program = new StringBuilder();
+        for (String statement : statements) {
+            program.append(statement);
+            if (!statement.strip().endsWith(";")) program.append(';');
+            program.append('\n');
+        }
+        return program.toString();
+    }
+
+    @Override
+    public ScriptEngine getScriptEngine() {
+        return new LoxScriptEngine(this);
+    }
+}
@@ -3,7 +3,9 @@ package lox.token;
 public enum TokenType {
     // Single-character tokens.
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+    LEFT_BRACKET, RIGHT_BRACKET,
     COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
+    COLON,
     PERCENT,
 
     // One or two character tokens.
@@ -22,6 +24,7 @@ public enum TokenType {
     VAR, CONST,
     IMPORT, AS,
     IF, ELSE,
+    PARALLEL, ASYNC, AWAIT, IN, YIELD,
     AND, OR,
     PRINT,
 
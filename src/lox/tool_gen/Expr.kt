@@ -7,10 +7,15 @@ abstract class Expr {
     interface Visitor<R> {
         fun visitAssignExpr(expr: Assign): R
         fun visitBinaryExpr(expr: Binary): R
+        fun visitAwaitExpr(expr: Await): R
         fun visitCallExpr(expr: Call): R
         fun visitLambdaExpr(expr: Lambda): R
         fun visitGetExpr(expr: Get): R
         fun visitGroupingExpr(expr: Grouping): R
+        fun visitIndexExpr(expr: Index): R
+        fun visitIndexSetExpr(expr: IndexSet): R
+        fun visitListLiteralExpr(expr: ListLiteral): R
+        fun visitMapLiteralExpr(expr: MapLiteral): R
         fun visitLiteralExpr(expr: Literal): R
         fun visitLogicalExpr(expr: Logical): R
         fun visitSetExpr(expr: Set): R
@@ -21,6 +26,11 @@ abstract class Expr {
     }
 
     class Assign(@JvmField val name: Token, @JvmField val value: Expr) : Expr() {
+        @JvmField var slot: Int = -1
+        @JvmField var upvalue: Int = -1
+        @JvmField var boxed: Boolean = false
+        @JvmField var global: Int = -1
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitAssignExpr(this)
         }
@@ -32,7 +42,17 @@ abstract class Expr {
         }
     }
 
+    class Await(@JvmField val keyword: Token, @JvmField val value: Expr) : Expr() {
+        override fun <R> accept(visitor: Visitor<R>): R {
+            return visitor.visitAwaitExpr(this)
+        }
+    }
+
     class Call(@JvmField val callee: Expr, @JvmField val paren: Token, @JvmField val arguments: List<Expr>) : Expr() {
+        @JvmField var inlineTarget: Stmt.Function? = null
+        @JvmField var inlineParams: List<Stmt.Var>? = null
+        @JvmField var inlineBody: Expr? = null
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitCallExpr(this)
         }
@@ -45,6 +65,8 @@ abstract class Expr {
     }
 
     class Get(@JvmField val obj: Expr, @JvmField val name: Token) : Expr() {
+        @JvmField var export: Any? = null
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitGetExpr(this)
         }
@@ -56,6 +78,30 @@ abstract class Expr {
         }
     }
 
+    class Index(@JvmField val obj: Expr, @JvmField val bracket: Token, @JvmField val index: Expr) : Expr() {
+        override fun <R> accept(visitor: Visitor<R>): R {
+            return visitor.visitIndexExpr(this)
+        }
+    }
+
+    class IndexSet(@JvmField val obj: Expr, @JvmField val bracket: Token, @JvmField val index: Expr, @JvmField val value: Expr) : Expr() {
+        override fun <R> accept(visitor: Visitor<R>): R {
+            return visitor.visitIndexSetExpr(this)
+        }
+    }
+
+    class ListLiteral(@JvmField val bracket: Token, @JvmField val elements: List<Expr>) : Expr() {
+        override fun <R> accept(visitor: Visitor<R>): R {
+            return visitor.visitListLiteralExpr(this)
+        }
+    }
+
+    class MapLiteral(@JvmField val brace: Token, @JvmField val keys: List<Expr>, @JvmField val values: List<Expr>) : Expr() {
+        override fun <R> accept(visitor: Visitor<R>): R {
+            return visitor.visitMapLiteralExpr(this)
+        }
+    }
+
     class Literal(@JvmField val value: Any?) : Expr() {
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitLiteralExpr(this)
@@ -69,18 +115,26 @@ abstract class Expr {
     }
 
     class Set(@JvmField val obj: Expr, @JvmField val name: Token, @JvmField val value: Expr) : Expr() {
+        @JvmField var export: Any? = null
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitSetExpr(this)
         }
     }
 
     class Super(@JvmField val keyword: Token, @JvmField val method: Token) : Expr() {
+        @JvmField var upvalue: Int = -1
+        @JvmField var receiver: This? = null
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitSuperExpr(this)
         }
     }
 
     class This(@JvmField val keyword: Token) : Expr() {
+        @JvmField var slot: Int = -1
+        @JvmField var upvalue: Int = -1
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitThisExpr(this)
         }
@@ -93,6 +147,11 @@ abstract class Expr {
     }
 
     class Variable(@JvmField val name: Token) : Expr() {
+        @JvmField var slot: Int = -1
+        @JvmField var upvalue: Int = -1
+        @JvmField var boxed: Boolean = false
+        @JvmField var global: Int = -1
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitVariableExpr(this)
         }
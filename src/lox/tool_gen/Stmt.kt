@@ -16,23 +16,36 @@ abstract class Stmt {
         fun visitReturnStmt(stmt: Return): R
         fun visitVarStmt(stmt: Var): R
         fun visitWhileStmt(stmt: While): R
+        fun visitForInStmt(stmt: ForIn): R
+        fun visitYieldStmt(stmt: Yield): R
+        fun visitParallelStmt(stmt: Parallel): R
         fun visitBreakStmt(stmt: Break): R
         fun visitContinueStmt(stmt: Continue): R
     }
 
     class Import(@JvmField val name: Token, @JvmField val alias: Token?) : Stmt() {
+        @JvmField var slot: Int = -1
+        @JvmField var boxed: Boolean = false
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitImportStmt(this)
         }
     }
 
     class Block(@JvmField val statements: List<Stmt>) : Stmt() {
+        @JvmField var frameSize: Int = -1
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitBlockStmt(this)
         }
     }
 
     class Class(@JvmField val name: Token, @JvmField val superclass: Expr.Variable?, @JvmField val methods: List<Function>) : Stmt() {
+        @JvmField var slot: Int = -1
+        @JvmField var boxed: Boolean = false
+        @JvmField var superSlot: Int = -1
+        @JvmField var frameSize: Int = -1
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitClassStmt(this)
         }
@@ -44,7 +57,15 @@ abstract class Stmt {
         }
     }
 
-    class Function(@JvmField val name: Token?, @JvmField val params: List<Token>, @JvmField val body: List<Stmt>) : Stmt() {
+    class Function(@JvmField val name: Token?, @JvmField val params: List<Token>, @JvmField val body: List<Stmt>, @JvmField val isAsync: Boolean) : Stmt() {
+        @JvmField var slot: Int = -1
+        @JvmField var boxed: Boolean = false
+        @JvmField var frameSize: Int = 0
+        @JvmField var upvalues: IntArray? = null
+        @JvmField var boxedParams: IntArray? = null
+        @JvmField var isGenerator: Boolean = false
+        @JvmField var suspending: Set<Stmt>? = null
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitFunctionStmt(this)
         }
@@ -69,6 +90,10 @@ abstract class Stmt {
     }
 
     class Var(@JvmField val name: Token, @JvmField val initializer: Expr?, @JvmField val varType: TokenType) : Stmt() {
+        @JvmField var slot: Int = -1
+        @JvmField var boxed: Boolean = false
+        @JvmField var global: Int = -1
+
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitVarStmt(this)
         }
@@ -80,6 +105,28 @@ abstract class Stmt {
         }
     }
 
+    class ForIn(@JvmField val name: Token, @JvmField val iterable: Expr, @JvmField val body: Stmt) : Stmt() {
+        @JvmField var slot: Int = -1
+        @JvmField var boxed: Boolean = false
+        @JvmField var frameSize: Int = -1
+
+        override fun <R> accept(visitor: Visitor<R>): R {
+            return visitor.visitForInStmt(this)
+        }
+    }
+
+    class Yield(@JvmField val keyword: Token, @JvmField val value: Expr) : Stmt() {
+        override fun <R> accept(visitor: Visitor<R>): R {
+            return visitor.visitYieldStmt(this)
+        }
+    }
+
+    class Parallel(@JvmField val keyword: Token, @JvmField val body: Block) : Stmt() {
+        override fun <R> accept(visitor: Visitor<R>): R {
+            return visitor.visitParallelStmt(this)
+        }
+    }
+
     class Break(@JvmField val keyword: Token) : Stmt() {
         override fun <R> accept(visitor: Visitor<R>): R {
             return visitor.visitBreakStmt(this)
@@ -14,32 +14,45 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
+                "Assign   : Token name, Expr value" +
+                        " | Int slot = -1, Int upvalue = -1, Boolean boxed = false, Int global = -1",
                 "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
+                "Await    : Token keyword, Expr value",
+                "Call     : Expr callee, Token paren, List<Expr> arguments" +
+                        " | Stmt.Function? inlineTarget, List<Stmt.Var>? inlineParams, Expr? inlineBody",
                 "Lambda   : Stmt.Function function",
-                "Get      : Expr obj, Token name",
+                "Get      : Expr obj, Token name | Any? export",
                 "Grouping : Expr expression",
+                "Index    : Expr obj, Token bracket, Expr index",
+                "IndexSet : Expr obj, Token bracket, Expr index, Expr value",
+                "ListLiteral : Token bracket, List<Expr> elements",
+                "MapLiteral  : Token brace, List<Expr> keys, List<Expr> values",
                 "Literal  : Any? value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr obj, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Set      : Expr obj, Token name, Expr value | Any? export",
+                "Super    : Token keyword, Token method | Int upvalue = -1, This? receiver",
+                "This     : Token keyword | Int slot = -1, Int upvalue = -1",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"
+                "Variable : Token name | Int slot = -1, Int upvalue = -1, Boolean boxed = false, Int global = -1"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Import     : Token name, Token? alias",
-                "Block      : List<Stmt> statements",
-                "Class      : Token name, Expr.Variable? superclass, List<Function> methods",
+                "Import     : Token name, Token? alias | Int slot = -1, Boolean boxed = false",
+                "Block      : List<Stmt> statements | Int frameSize = -1",
+                "Class      : Token name, Expr.Variable? superclass, List<Function> methods" +
+                        " | Int slot = -1, Boolean boxed = false, Int superSlot = -1, Int frameSize = -1",
                 "Expression : Expr expression",
-                "Function   : Token? name, List<Token> params, List<Stmt> body",
+                "Function   : Token? name, List<Token> params, List<Stmt> body, Boolean isAsync" +
+                        " | Int slot = -1, Boolean boxed = false, Int frameSize = 0, IntArray? upvalues, IntArray? boxedParams" +
+                        ", Boolean isGenerator = false, Set<Stmt>? suspending",
                 "If         : Expr condition, Stmt thenBranch, Stmt? elseBranch",
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr? value",
-                "Var        : Token name, Expr? initializer, TokenType varType",
+                "Var        : Token name, Expr? initializer, TokenType varType | Int slot = -1, Boolean boxed = false, Int global = -1",
                 "While      : Expr condition, Stmt body",
+                "ForIn      : Token name, Expr iterable, Stmt body | Int slot = -1, Boolean boxed = false, Int frameSize = -1",
+                "Yield      : Token keyword, Expr value",
+                "Parallel   : Token keyword, Block body",
                 "Break      : Token keyword",
                 "Continue   : Token keyword"
         ));
@@ -62,8 +75,9 @@ public class GenerateAst {
         // The AST classes.
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fields = type.split(":")[1].split("\\|");
+            String cacheFields = fields.length > 1 ? fields[1].trim() : null;
+            defineType(writer, baseName, className, fields[0].trim(), cacheFields);
         }
 
         // The base accept() method.
@@ -84,7 +98,8 @@ public class GenerateAst {
         writer.println();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String cacheFieldList) {
         writer.print("    class " + className + "(");
 
         // Fields.
@@ -100,6 +115,18 @@ public class GenerateAst {
         }
         writer.println(") : " + baseName + "() {");
 
+        // Mutable fields filled in after parsing (by the resolver).
+        if (cacheFieldList != null) {
+            for (String field : cacheFieldList.split(", ")) {
+                String[] split = field.split(" ");
+                String type = split[0];
+                String name = split[1];
+                String value = split.length > 3 ? split[3] : "null";
+                writer.println("        @JvmField var " + name + ": " + type + " = " + value);
+            }
+            writer.println();
+        }
+
         // Visitor pattern.
         writer.println("        override fun <R> accept(visitor: Visitor<R>): R {");
         writer.println("            return visitor.visit" + className + baseName + "(this)");